@@ -0,0 +1,44 @@
+package android.content;
+
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Only the members used by the CoreLibrary, the copy constructor is hidden.
+ */
+public class ContentProviderOperation implements Parcelable {
+    
+    /** @hide */
+    public ContentProviderOperation(ContentProviderOperation cpo, Uri withUri) {
+        throw new RuntimeException("Stub!");
+    }
+    
+    public Uri getUri() {
+        throw new RuntimeException("Stub!");
+    }
+    
+    @Override
+    public int describeContents() {
+        throw new RuntimeException("Stub!");
+    }
+    
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        throw new RuntimeException("Stub!");
+    }
+    
+    public static final Parcelable.Creator<ContentProviderOperation> CREATOR
+        = new Parcelable.Creator<ContentProviderOperation>() {
+        @Override
+        public ContentProviderOperation createFromParcel(Parcel source) {
+            throw new RuntimeException("Stub!");
+        }
+        
+        @Override
+        public ContentProviderOperation[] newArray(int size) {
+            throw new RuntimeException("Stub!");
+        }
+    };
+    
+}
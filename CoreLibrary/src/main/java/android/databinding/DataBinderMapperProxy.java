@@ -8,13 +8,14 @@ import com.didi.virtualapk.PluginManager;
 import com.didi.virtualapk.internal.Constants;
 import com.didi.virtualapk.internal.LoadedPlugin;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 
 /**
  * Replace {@link DataBindingUtil#sMapper}.
  * Created by qiaopu on 2018/4/11.
  */
-public class DataBinderMapperProxy extends DataBinderMapper implements PluginManager.Callback {
+public class DataBinderMapperProxy extends DataBinderMapper implements PluginManager.UnloadCallback {
     public static final String TAG = Constants.TAG_PREFIX + "DataBinderMapperProxy";
     
     private final LinkedList<DataBinderMapper> mMappers;
@@ -101,6 +102,11 @@ public class DataBinderMapperProxy extends DataBinderMapper implements PluginMan
         }
     }
     
+    @Override
+    public void onRemovedLoadedPlugin(LoadedPlugin plugin) {
+        removeMapper("android.databinding.DataBinderMapper_" + plugin.getPackageName().replace('.', '_'));
+    }
+    
     private void addMapper(DataBinderMapper mapper) {
         int size = 0;
         synchronized (mMappers) {
@@ -112,6 +118,22 @@ public class DataBinderMapperProxy extends DataBinderMapper implements PluginMan
         Log.d(TAG, "Added mapper: " + mapper + ", size: " + size);
     }
     
+    private void removeMapper(String clsName) {
+        int size = 0;
+        synchronized (mMappers) {
+            Iterator<DataBinderMapper> iterator = mMappers.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getClass().getName().equals(clsName)) {
+                    iterator.remove();
+                    mCache = null;
+                }
+            }
+            size = mMappers.size();
+        }
+    
+        Log.d(TAG, "Removed mapper: " + clsName + ", size: " + size);
+    }
+    
     private DataBinderMapper[] getCache() {
         synchronized (mMappers) {
             if (mCache == null) {
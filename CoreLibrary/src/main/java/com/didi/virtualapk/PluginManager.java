@@ -22,7 +22,9 @@ import android.app.ActivityThread;
 import android.app.Application;
 import android.app.IActivityManager;
 import android.app.Instrumentation;
+import android.app.Service;
 import android.content.ComponentName;
+import android.content.ContentProvider;
 import android.content.Context;
 import android.content.IContentProvider;
 import android.content.Intent;
@@ -41,15 +43,20 @@ import com.didi.virtualapk.delegate.IContentProviderProxy;
 import com.didi.virtualapk.delegate.RemoteContentProvider;
 import com.didi.virtualapk.internal.ComponentsHandler;
 import com.didi.virtualapk.internal.Constants;
+import com.didi.virtualapk.internal.LaunchTracker;
 import com.didi.virtualapk.internal.LoadedPlugin;
+import com.didi.virtualapk.internal.PluginEvictor;
+import com.didi.virtualapk.internal.ServiceFactory;
 import com.didi.virtualapk.internal.VAInstrumentation;
 import com.didi.virtualapk.internal.utils.PluginUtil;
 import com.didi.virtualapk.utils.Reflector;
 import com.didi.virtualapk.utils.RunUtil;
+import com.didi.virtualapk.utils.TraceUtil;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
@@ -71,12 +78,16 @@ public class PluginManager {
     protected final Context mContext;
     protected final Application mApplication;
     protected ComponentsHandler mComponentsHandler;
+    protected ServiceFactory mServiceFactory;
+    protected PluginEvictor mPluginEvictor;
+    protected LaunchTracker mLaunchTracker;
     protected final Map<String, LoadedPlugin> mPlugins = new ConcurrentHashMap<>();
     protected final List<Callback> mCallbacks = new ArrayList<>();
 
     protected VAInstrumentation mInstrumentation; // Hooked instrumentation
     protected IActivityManager mActivityManager; // Hooked IActivityManager binder
     protected IContentProvider mIContentProvider; // Hooked IContentProvider binder
+    protected final Map<String, IContentProvider> mLocalProviders = new ConcurrentHashMap<>(); // key is every authority of provider
 
     public static PluginManager getInstance(Context base) {
         if (sInstance == null) {
@@ -136,7 +147,13 @@ public class PluginManager {
         }
         
         mComponentsHandler = createComponentsHandler();
+        mServiceFactory = createServiceFactory();
+        mPluginEvictor = createPluginEvictor();
+        mLaunchTracker = createLaunchTracker();
         hookCurrentProcess();
+        if (mApplication != null) {
+            mApplication.registerComponentCallbacks(mPluginEvictor);
+        }
     }
 
     protected void hookCurrentProcess() {
@@ -146,7 +163,7 @@ public class PluginManager {
     }
 
     public void init() {
-        RunUtil.getThreadPool().execute(new Runnable() {
+        RunUtil.getThreadPool(RunUtil.LANE_CRITICAL).execute(new Runnable() {
             @Override
             public void run() {
                 doInWorkThread();
@@ -165,6 +182,18 @@ public class PluginManager {
         return new ComponentsHandler(this);
     }
     
+    protected ServiceFactory createServiceFactory() {
+        return new ServiceFactory(this);
+    }
+    
+    protected PluginEvictor createPluginEvictor() {
+        return new PluginEvictor(this);
+    }
+    
+    protected LaunchTracker createLaunchTracker() {
+        return new LaunchTracker();
+    }
+    
     protected VAInstrumentation createInstrumentation(Instrumentation origin) throws Exception {
         return new VAInstrumentation(this, origin);
     }
@@ -315,18 +344,82 @@ public class PluginManager {
             in.close();
         }
 
-        LoadedPlugin plugin = createLoadedPlugin(apk);
+        TraceUtil.beginSection("VA.loadPlugin", apk.getName());
+        try {
+            LoadedPlugin plugin = createLoadedPlugin(apk);
+        
+            if (null == plugin) {
+                throw new RuntimeException("Can't load plugin which is invalid: " + apk.getAbsolutePath());
+            }
         
+            this.mPlugins.put(plugin.getPackageName(), plugin);
+            synchronized (mCallbacks) {
+                for (int i = 0; i < mCallbacks.size(); i++) {
+                    mCallbacks.get(i).onAddedLoadedPlugin(plugin);
+                }
+            }
+        } finally {
+            TraceUtil.endSection();
+        }
+    }
+
+    /**
+     * unload a plugin from memory. Its services are destroyed, its activities are finished, its receivers
+     * are unregistered, and the caches of its components are dropped, so that its class loader and
+     * resources could be collected once the host releases its own references to them.
+     * @param packageName the package name of plugin
+     * @return false if the plugin is not loaded
+     */
+    public boolean unloadPlugin(String packageName) {
+        final LoadedPlugin plugin = this.mPlugins.remove(packageName);
         if (null == plugin) {
-            throw new RuntimeException("Can't load plugin which is invalid: " + apk.getAbsolutePath());
+            return false;
         }
-        
-        this.mPlugins.put(plugin.getPackageName(), plugin);
+
+        // Components are torn down on ui thread, like their lifecycle callbacks.
+        RunUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                releasePlugin(plugin);
+            }
+        }, true);
+
         synchronized (mCallbacks) {
             for (int i = 0; i < mCallbacks.size(); i++) {
-                mCallbacks.get(i).onAddedLoadedPlugin(plugin);
+                Callback callback = mCallbacks.get(i);
+                if (callback instanceof UnloadCallback) {
+                    ((UnloadCallback) callback).onRemovedLoadedPlugin(plugin);
+                }
+            }
+        }
+        return true;
+    }
+
+    protected void releasePlugin(LoadedPlugin plugin) {
+        String packageName = plugin.getPackageName();
+        for (Service service : mComponentsHandler.forgetServices(packageName)) {
+            try {
+                service.onDestroy();
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to stop service " + service, e);
+            }
+        }
+        mComponentsHandler.forgetStubActivities(plugin);
+        mServiceFactory.forget(packageName);
+        mLaunchTracker.forget(packageName);
+
+        ProviderInfo[] providers = plugin.getPackageInfo().providers;
+        if (providers != null) {
+            for (ProviderInfo providerInfo : providers) {
+                for (String authority : PluginUtil.getAuthorities(providerInfo)) {
+                    mLocalProviders.remove(authority);
+                }
             }
         }
+        RemoteContentProvider.forgetPlugin(plugin);
+
+        plugin.release();
+        Log.d(TAG, "releasePlugin " + packageName);
     }
 
     public LoadedPlugin getLoadedPlugin(Intent intent) {
@@ -341,7 +434,11 @@ public class PluginManager {
     }
 
     public LoadedPlugin getLoadedPlugin(String packageName) {
-        return this.mPlugins.get(packageName);
+        LoadedPlugin plugin = this.mPlugins.get(packageName);
+        if (plugin != null) {
+            plugin.touch();
+        }
+        return plugin;
     }
 
     public List<LoadedPlugin> getAllLoadedPlugins() {
@@ -350,6 +447,18 @@ public class PluginManager {
         return list;
     }
 
+    /**
+     * Print the load cost and memory accounting of all the loaded plugins, see {@link LoadedPlugin#getStats()}
+     */
+    public void dump(PrintWriter writer) {
+        List<LoadedPlugin> plugins = getAllLoadedPlugins();
+        writer.println("Loaded plugins: " + plugins.size());
+        for (LoadedPlugin plugin : plugins) {
+            plugin.getStats().dump(writer);
+        }
+        writer.flush();
+    }
+
     public Context getHostContext() {
         return this.mContext;
     }
@@ -370,10 +479,75 @@ public class PluginManager {
         return mIContentProvider;
     }
 
+    /**
+     * Get the provider binder for the plugin provider. Providers of plugins running in the current
+     * process are served by their local transport when {@link #isLocalProviderEnabled()}, others
+     * are proxied to {@link RemoteContentProvider} in the daemon process.
+     */
+    public IContentProvider getIContentProvider(ProviderInfo providerInfo) {
+        String[] authorities = PluginUtil.getAuthorities(providerInfo);
+        IContentProvider provider = mLocalProviders.get(authorities[0]);
+        if (provider != null) {
+            return provider;
+        }
+
+        if (isLocalProviderEnabled() && PluginUtil.isLocalProvider(providerInfo) && RunUtil.isMainProcess(mContext)) {
+            LoadedPlugin plugin = getLoadedPlugin(providerInfo.packageName);
+            ContentProvider contentProvider = plugin != null ? RemoteContentProvider.getContentProvider(plugin, providerInfo) : null;
+            if (contentProvider != null) {
+                provider = Reflector.QuietReflector.with(contentProvider).method("getIContentProvider").call();
+                if (provider != null) {
+                    for (String authority : authorities) {
+                        mLocalProviders.put(authority, provider);
+                    }
+                    return provider;
+                }
+            }
+        }
+
+        return getIContentProvider();
+    }
+
+    /**
+     * Whether providers of plugins loaded in the current process are instantiated locally, which
+     * saves the binder hop and cursor marshalling to the daemon process. Note that the daemon and
+     * other processes still use their own instance of the provider.
+     * Disabled by default, override it in the PluginManager created by VA_FACTORY to enable.
+     */
+    protected boolean isLocalProviderEnabled() {
+        return false;
+    }
+
     public ComponentsHandler getComponentsHandler() {
         return mComponentsHandler;
     }
 
+    /**
+     * The evictor drops the soft caches of plugins under memory pressure. Unloading idle plugins is
+     * enabled by setting a policy through it, and plugins could be pinned.
+     */
+    public PluginEvictor getPluginEvictor() {
+        return mPluginEvictor;
+    }
+
+    /**
+     * Latency of starting the plugin activities, per component and per stage.
+     */
+    public LaunchTracker getLaunchTracker() {
+        return mLaunchTracker;
+    }
+
+    /**
+     * @return true if the in-process provider of the authority has been created, see {@link #getIContentProvider(ProviderInfo)}
+     */
+    public boolean hasLocalProvider(String authority) {
+        return mLocalProviders.containsKey(authority);
+    }
+
+    public ServiceFactory getServiceFactory() {
+        return mServiceFactory;
+    }
+
     public ResolveInfo resolveActivity(Intent intent) {
         return this.resolveActivity(intent, 0);
     }
@@ -465,4 +639,12 @@ public class PluginManager {
     public interface Callback {
         void onAddedLoadedPlugin(LoadedPlugin plugin);
     }
+
+    /**
+     * Callback which is told about the unloaded plugins as well, see {@link #unloadPlugin(String)}.
+     * It's added by {@link #addCallback(Callback)} like other callbacks.
+     */
+    public interface UnloadCallback extends Callback {
+        void onRemovedLoadedPlugin(LoadedPlugin plugin);
+    }
 }
\ No newline at end of file
@@ -35,6 +35,8 @@ import android.util.Log;
 import com.didi.virtualapk.PluginManager;
 import com.didi.virtualapk.internal.Constants;
 import com.didi.virtualapk.internal.utils.PluginUtil;
+import com.didi.virtualapk.utils.RunUtil;
+import com.didi.virtualapk.utils.TraceUtil;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -53,6 +55,7 @@ public class ActivityManagerProxy implements InvocationHandler {
 
     private PluginManager mPluginManager;
     private IActivityManager mActivityManager;
+    private volatile boolean mLocalServiceStarted;
 
     public ActivityManagerProxy(PluginManager pluginManager, IActivityManager activityManager) {
         this.mPluginManager = pluginManager;
@@ -62,46 +65,67 @@ public class ActivityManagerProxy implements InvocationHandler {
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         if ("startService".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.startService");
             try {
                 return startService(proxy, method, args);
             } catch (Throwable e) {
                 Log.e(TAG, "Start service error", e);
+            } finally {
+                TraceUtil.endSection();
             }
         } else if ("stopService".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.stopService");
             try {
                 return stopService(proxy, method, args);
             } catch (Throwable e) {
                 Log.e(TAG, "Stop Service error", e);
+            } finally {
+                TraceUtil.endSection();
             }
         } else if ("stopServiceToken".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.stopServiceToken");
             try {
                 return stopServiceToken(proxy, method, args);
             } catch (Throwable e) {
                 Log.e(TAG, "Stop service token error", e);
+            } finally {
+                TraceUtil.endSection();
             }
         } else if ("bindService".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.bindService");
             try {
                 return bindService(proxy, method, args);
             } catch (Throwable e) {
                 Log.w(TAG, e);
+            } finally {
+                TraceUtil.endSection();
             }
         } else if ("unbindService".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.unbindService");
             try {
                 return unbindService(proxy, method, args);
             } catch (Throwable e) {
                 Log.w(TAG, e);
+            } finally {
+                TraceUtil.endSection();
             }
         } else if ("getIntentSender".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.getIntentSender");
             try {
                 getIntentSender(method, args);
             } catch (Exception e) {
                 Log.w(TAG, e);
+            } finally {
+                TraceUtil.endSection();
             }
-        } else if ("overridePendingTransition".equals(method.getName())){
+        } else if ("overridePendingTransition".equals(method.getName())) {
+            TraceUtil.beginSection("VA.AMS.overridePendingTransition");
             try {
                 overridePendingTransition(method, args);
-            } catch (Exception e){
+            } catch (Exception e) {
                 Log.w(TAG, e);
+            } finally {
+                TraceUtil.endSection();
             }
         }
 
@@ -198,9 +222,35 @@ public class ActivityManagerProxy implements InvocationHandler {
 
     protected ComponentName startDelegateServiceForTarget(Intent target, ServiceInfo serviceInfo, Bundle extras, int command) {
         Intent wrapperIntent = wrapperTargetIntent(target, serviceInfo, extras, command);
+        if (PluginUtil.isLocalService(serviceInfo)) {
+            // the service would get a copy of the intent through AMS.
+            wrapperIntent.putExtra(RemoteService.EXTRA_TARGET, new Intent(target));
+            return startLocalServiceForTarget(wrapperIntent);
+        }
         return mPluginManager.getHostContext().startService(wrapperIntent);
     }
 
+    /**
+     * Local plugin services run in the current process, so the command is posted to the main thread
+     * directly rather than going through AMS to {@link LocalService}. Commands are still handled on
+     * the main thread one by one in the order they were issued, as AMS delivers them.
+     */
+    protected ComponentName startLocalServiceForTarget(final Intent wrapperIntent) {
+        if (!mLocalServiceStarted) {
+            // keep the delegate service started once, so the process importance is the same as before.
+            mLocalServiceStarted = true;
+            mPluginManager.getHostContext().startService(new Intent(mPluginManager.getHostContext(), LocalService.class));
+        }
+
+        RunUtil.postOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                LocalService.handleCommand(mPluginManager, wrapperIntent);
+            }
+        });
+        return wrapperIntent.getComponent();
+    }
+
     protected Intent wrapperTargetIntent(Intent target, ServiceInfo serviceInfo, Bundle extras, int command) {
         // fill in service with ComponentName
         target.setComponent(new ComponentName(serviceInfo.packageName, serviceInfo.name));
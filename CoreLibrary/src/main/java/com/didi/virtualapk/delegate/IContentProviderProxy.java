@@ -16,6 +16,7 @@
 
 package com.didi.virtualapk.delegate;
 
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.IContentProvider;
 import android.content.pm.ProviderInfo;
@@ -32,7 +33,9 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by renyugang on 16/12/8.
@@ -41,6 +44,10 @@ import java.util.Arrays;
 public class IContentProviderProxy implements InvocationHandler {
     private static final String TAG = Constants.TAG_PREFIX + "IContentProviderProxy";
 
+    private static final boolean VERBOSE = Log.isLoggable(Constants.TAG, Log.VERBOSE);
+
+    private static final ConcurrentHashMap<Method, MethodSlots> sMethodSlots = new ConcurrentHashMap<>();
+
     private IContentProvider mBase;
     private Context mContext;
 
@@ -56,8 +63,17 @@ public class IContentProviderProxy implements InvocationHandler {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        Log.v(TAG, method.toGenericString() + " : " + Arrays.toString(args));
-        wrapperUri(method, args);
+        MethodSlots slots = getMethodSlots(method);
+        if (VERBOSE) {
+            Log.v(TAG, method.getName() + " : " + Arrays.toString(args));
+        }
+
+        if (slots.isAsBinder) {
+            return mBase.asBinder();
+        }
+        if (args != null) {
+            wrapperUri(slots, args);
+        }
 
         try {
             return method.invoke(mBase, args);
@@ -66,60 +82,83 @@ public class IContentProviderProxy implements InvocationHandler {
         }
     }
 
-    private void wrapperUri(Method method, Object[] args) {
-        Uri uri = null;
-        int index = 0;
-        if (args != null) {
-            for (int i = 0; i < args.length; i++) {
-                if (args[i] instanceof Uri) {
-                    uri = (Uri) args[i];
-                    index = i;
-                    break;
+    private static MethodSlots getMethodSlots(Method method) {
+        MethodSlots slots = sMethodSlots.get(method);
+        if (slots == null) {
+            slots = new MethodSlots(method);
+            sMethodSlots.putIfAbsent(method, slots);
+        }
+        return slots;
+    }
+
+    private void wrapperUri(MethodSlots slots, Object[] args) {
+        if (slots.uriIndex >= 0) {
+            Uri uri = (Uri) args[slots.uriIndex];
+            if (uri != null) {
+                Uri wrapperUri = wrapperUri(uri);
+                if (wrapperUri != null) {
+                    args[slots.uriIndex] = wrapperUri;
                 }
             }
-        }
 
-        Bundle bundleInCallMethod = null;
-        if (method.getName().equals("call")) {
-            bundleInCallMethod = getBundleParameter(args);
-            if (bundleInCallMethod != null) {
-                String uriString = bundleInCallMethod.getString(RemoteContentProvider.KEY_WRAPPER_URI);
-                if (uriString != null) {
-                    uri = Uri.parse(uriString);
+        } else if (slots.bundleIndex >= 0) {
+            Bundle bundleInCallMethod = (Bundle) args[slots.bundleIndex];
+            String uriString = bundleInCallMethod != null ? bundleInCallMethod.getString(RemoteContentProvider.KEY_WRAPPER_URI) : null;
+            if (uriString != null) {
+                Uri wrapperUri = wrapperUri(Uri.parse(uriString));
+                if (wrapperUri != null) {
+                    bundleInCallMethod.putString(RemoteContentProvider.KEY_WRAPPER_URI, wrapperUri.toString());
                 }
             }
-        }
 
-        if (uri == null) {
-            return;
+        } else if (slots.operationsIndex >= 0) {
+            ArrayList<ContentProviderOperation> operations = (ArrayList<ContentProviderOperation>) args[slots.operationsIndex];
+            if (operations != null) {
+                ArrayList<ContentProviderOperation> wrapperOperations = new ArrayList<>(operations.size());
+                for (ContentProviderOperation operation : operations) {
+                    Uri wrapperUri = wrapperUri(operation.getUri());
+                    wrapperOperations.add(wrapperUri != null ? RemoteContentProvider.copyOperation(operation, wrapperUri, null) : operation);
+                }
+                args[slots.operationsIndex] = wrapperOperations;
+            }
         }
+    }
 
+    private Uri wrapperUri(Uri uri) {
         PluginManager pluginManager = PluginManager.getInstance(mContext);
         ProviderInfo info = pluginManager.resolveContentProvider(uri.getAuthority(), 0);
-        if (info != null) {
-            String pkg = info.packageName;
-            LoadedPlugin plugin = pluginManager.getLoadedPlugin(pkg);
-            Uri wrapperUri = PluginContentResolver.wrapperUri(plugin, uri);
-            if (method.getName().equals("call")) {
-                bundleInCallMethod.putString(RemoteContentProvider.KEY_WRAPPER_URI, wrapperUri.toString());
-            } else {
-                args[index] = wrapperUri;
-            }
+        if (info == null) {
+            return null;
         }
+
+        LoadedPlugin plugin = pluginManager.getLoadedPlugin(info.packageName);
+        return PluginContentResolver.wrapperUri(plugin, uri);
     }
 
-    private Bundle getBundleParameter(Object[] args) {
-        Bundle bundle = null;
-        if (args != null) {
-            for (int i = 0; i < args.length; i++) {
-                if (args[i] instanceof Bundle) {
-                    bundle = (Bundle) args[i];
-                    break;
+    /**
+     * Argument slots of an IContentProvider method, they are resolved once from the parameter types.
+     */
+    private static final class MethodSlots {
+        final boolean isAsBinder;
+        int uriIndex = -1;
+        int bundleIndex = -1;
+        int operationsIndex = -1;
+
+        MethodSlots(Method method) {
+            String name = method.getName();
+            Class<?>[] types = method.getParameterTypes();
+            isAsBinder = "asBinder".equals(name) && types.length == 0;
+            boolean isCall = "call".equals(name);
+            for (int i = 0; i < types.length; i++) {
+                if (uriIndex < 0 && types[i] == Uri.class) {
+                    uriIndex = i;
+                } else if (isCall && types[i] == Bundle.class) {
+                    bundleIndex = i;
+                } else if (operationsIndex < 0 && types[i] == ArrayList.class && "applyBatch".equals(name)) {
+                    operationsIndex = i;
                 }
             }
         }
-
-        return bundle;
     }
 
 }
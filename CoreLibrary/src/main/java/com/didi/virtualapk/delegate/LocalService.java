@@ -16,14 +16,9 @@
 
 package com.didi.virtualapk.delegate;
 
-import android.app.ActivityThread;
-import android.app.Application;
-import android.app.IActivityManager;
-import android.app.IApplicationThread;
 import android.app.IServiceConnection;
 import android.app.Service;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
@@ -35,8 +30,9 @@ import com.didi.virtualapk.internal.Constants;
 import com.didi.virtualapk.internal.LoadedPlugin;
 import com.didi.virtualapk.internal.utils.PluginUtil;
 import com.didi.virtualapk.utils.Reflector;
+import com.didi.virtualapk.utils.TraceUtil;
 
-import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
 
 /**
  * @author johnsonlee
@@ -72,120 +68,128 @@ public class LocalService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        handleCommand(mPluginManager, intent);
+        return START_STICKY;
+    }
+
+    /**
+     * Run the plugin service command wrapped in the intent, see {@link ActivityManagerProxy#wrapperTargetIntent}.
+     * It must be called on the main thread, like the lifecycle callbacks of a service.
+     */
+    public static void handleCommand(PluginManager pluginManager, Intent intent) {
         if (null == intent || !intent.hasExtra(EXTRA_TARGET) || !intent.hasExtra(EXTRA_COMMAND)) {
-            return START_STICKY;
+            return;
         }
 
         Intent target = intent.getParcelableExtra(EXTRA_TARGET);
         int command = intent.getIntExtra(EXTRA_COMMAND, 0);
         if (null == target || command <= 0) {
-            return START_STICKY;
+            return;
         }
 
         ComponentName component = target.getComponent();
-        LoadedPlugin plugin = mPluginManager.getLoadedPlugin(component);
+        LoadedPlugin plugin = pluginManager.getLoadedPlugin(component);
         
         if (plugin == null) {
             Log.w(TAG, "Error target: " + target.toURI());
-            return START_STICKY;
+            return;
         }
         // ClassNotFoundException when unmarshalling in Android 5.1
         target.setExtrasClassLoader(plugin.getClassLoader());
-        switch (command) {
-            case EXTRA_COMMAND_START_SERVICE: {
-                ActivityThread mainThread = ActivityThread.currentActivityThread();
-                IApplicationThread appThread = mainThread.getApplicationThread();
-                Service service;
-
-                if (this.mPluginManager.getComponentsHandler().isServiceAvailable(component)) {
-                    service = this.mPluginManager.getComponentsHandler().getService(component);
-                } else {
-                    try {
-                        service = (Service) plugin.getClassLoader().loadClass(component.getClassName()).newInstance();
-
-                        Application app = plugin.getApplication();
-                        IBinder token = appThread.asBinder();
-                        Method attach = service.getClass().getMethod("attach", Context.class, ActivityThread.class, String.class, IBinder.class, Application.class, Object.class);
-                        IActivityManager am = mPluginManager.getActivityManager();
-
-                        attach.invoke(service, plugin.getPluginContext(), mainThread, component.getClassName(), token, app, am);
-                        service.onCreate();
-                        this.mPluginManager.getComponentsHandler().rememberService(component, service);
-                    } catch (Throwable t) {
-                        return START_STICKY;
+        TraceUtil.beginSection(getSectionName(command), component.getClassName());
+        try {
+            switch (command) {
+                case EXTRA_COMMAND_START_SERVICE: {
+                    Service service = getOrCreateService(pluginManager, plugin, component);
+                    if (service == null) {
+                        return;
                     }
+
+                    service.onStartCommand(target, 0, pluginManager.getComponentsHandler().getServiceCounter(component).getAndIncrement());
+                    break;
                 }
+                case EXTRA_COMMAND_BIND_SERVICE: {
+                    Service service = getOrCreateService(pluginManager, plugin, component);
+                    if (service == null) {
+                        return;
+                    }
 
-                service.onStartCommand(target, 0, this.mPluginManager.getComponentsHandler().getServiceCounter(service).getAndIncrement());
-                break;
-            }
-            case EXTRA_COMMAND_BIND_SERVICE: {
-                ActivityThread mainThread = ActivityThread.currentActivityThread();
-                IApplicationThread appThread = mainThread.getApplicationThread();
-                Service service = null;
-
-                if (this.mPluginManager.getComponentsHandler().isServiceAvailable(component)) {
-                    service = this.mPluginManager.getComponentsHandler().getService(component);
-                } else {
                     try {
-                        service = (Service) plugin.getClassLoader().loadClass(component.getClassName()).newInstance();
-
-                        Application app = plugin.getApplication();
-                        IBinder token = appThread.asBinder();
-                        Method attach = service.getClass().getMethod("attach", Context.class, ActivityThread.class, String.class, IBinder.class, Application.class, Object.class);
-                        IActivityManager am = mPluginManager.getActivityManager();
-
-                        attach.invoke(service, plugin.getPluginContext(), mainThread, component.getClassName(), token, app, am);
-                        service.onCreate();
-                        this.mPluginManager.getComponentsHandler().rememberService(component, service);
-                    } catch (Throwable t) {
-                        Log.w(TAG, t);
+                        IBinder binder = service.onBind(target);
+                        IBinder serviceConnection = PluginUtil.getBinder(intent.getExtras(), "sc");
+                        // the record of the service may be created after the caller remembered the connection.
+                        pluginManager.getComponentsHandler().remberIServiceConnection(serviceConnection, target);
+                        IServiceConnection iServiceConnection = IServiceConnection.Stub.asInterface(serviceConnection);
+                        if (Build.VERSION.SDK_INT >= 26) {
+                            iServiceConnection.connected(component, binder, false);
+                        } else {
+                            Reflector.QuietReflector.with(iServiceConnection).method("connected", ComponentName.class, IBinder.class).call(component, binder);
+                        }
+                    } catch (Exception e) {
+                        Log.w(TAG, e);
                     }
+                    break;
                 }
-                try {
-                    IBinder binder = service.onBind(target);
-                    IBinder serviceConnection = PluginUtil.getBinder(intent.getExtras(), "sc");
-                    IServiceConnection iServiceConnection = IServiceConnection.Stub.asInterface(serviceConnection);
-                    if (Build.VERSION.SDK_INT >= 26) {
-                        iServiceConnection.connected(component, binder, false);
+                case EXTRA_COMMAND_STOP_SERVICE: {
+                    Service service = pluginManager.getComponentsHandler().forgetService(component);
+                    if (null != service) {
+                        try {
+                            service.onDestroy();
+                        } catch (Exception e) {
+                            Log.e(TAG, "Unable to stop service " + service + ": " + e.toString());
+                        }
                     } else {
-                        Reflector.QuietReflector.with(iServiceConnection).method("connected", ComponentName.class, IBinder.class).call(component, binder);
-                    }
-                } catch (Exception e) {
-                    Log.w(TAG, e);
-                }
-                break;
-            }
-            case EXTRA_COMMAND_STOP_SERVICE: {
-                Service service = this.mPluginManager.getComponentsHandler().forgetService(component);
-                if (null != service) {
-                    try {
-                        service.onDestroy();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Unable to stop service " + service + ": " + e.toString());
+                        Log.i(TAG, component + " not found");
                     }
-                } else {
-                    Log.i(TAG, component + " not found");
+                    break;
                 }
-                break;
-            }
-            case EXTRA_COMMAND_UNBIND_SERVICE: {
-                Service service = this.mPluginManager.getComponentsHandler().forgetService(component);
-                if (null != service) {
-                    try {
-                        service.onUnbind(target);
-                        service.onDestroy();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Unable to unbind service " + service + ": " + e.toString());
+                case EXTRA_COMMAND_UNBIND_SERVICE: {
+                    Service service = pluginManager.getComponentsHandler().forgetService(component);
+                    if (null != service) {
+                        try {
+                            service.onUnbind(target);
+                            service.onDestroy();
+                        } catch (Exception e) {
+                            Log.e(TAG, "Unable to unbind service " + service + ": " + e.toString());
+                        }
+                    } else {
+                        Log.i(TAG, component + " not found");
                     }
-                } else {
-                    Log.i(TAG, component + " not found");
+                    break;
                 }
-                break;
             }
+        } finally {
+            TraceUtil.endSection();
+        }
+    }
+
+    private static String getSectionName(int command) {
+        switch (command) {
+            case EXTRA_COMMAND_START_SERVICE:
+                return "VA.service.start";
+            case EXTRA_COMMAND_STOP_SERVICE:
+                return "VA.service.stop";
+            case EXTRA_COMMAND_BIND_SERVICE:
+                return "VA.service.bind";
+            case EXTRA_COMMAND_UNBIND_SERVICE:
+                return "VA.service.unbind";
+            default:
+                return "VA.service.unknown";
         }
+    }
 
-        return START_STICKY;
+    private static Service getOrCreateService(final PluginManager pluginManager, final LoadedPlugin plugin, final ComponentName component) {
+        try {
+            return pluginManager.getComponentsHandler().getOrCreateService(component, new Callable<Service>() {
+                @Override
+                public Service call() throws Exception {
+                    return pluginManager.getServiceFactory().newService(plugin, component);
+                }
+            });
+        } catch (Throwable t) {
+            Log.w(TAG, "Unable to create service " + component, t);
+            return null;
+        }
     }
 
 }
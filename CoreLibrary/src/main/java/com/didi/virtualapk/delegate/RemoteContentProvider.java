@@ -16,6 +16,7 @@
 
 package com.didi.virtualapk.delegate;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
@@ -25,20 +26,31 @@ import android.content.OperationApplicationException;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import com.didi.virtualapk.PluginManager;
 import com.didi.virtualapk.internal.Constants;
 import com.didi.virtualapk.internal.LoadedPlugin;
+import com.didi.virtualapk.internal.utils.PluginUtil;
+import com.didi.virtualapk.utils.Reflector;
 import com.didi.virtualapk.utils.RunUtil;
+import com.didi.virtualapk.utils.TraceUtil;
 
 import java.io.File;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Created by renyugang on 16/12/7.
@@ -53,7 +65,10 @@ public class RemoteContentProvider extends ContentProvider {
 
     public static final String KEY_WRAPPER_URI = "wrapper_uri";
 
-    private static Map<String, ContentProvider> sCachedProviders = new HashMap<>();
+    private static final ConcurrentHashMap<String, FutureTask<ContentProvider>> sCachedProviders = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, FutureTask<LoadedPlugin>> sLoadingPlugins = new ConcurrentHashMap<>();
+    // instantiated on ui thread, key is the first authority of provider
+    private static final ConcurrentHashMap<String, ContentProvider> sProviderInstances = new ConcurrentHashMap<>();
 
     @Override
     public boolean onCreate() {
@@ -63,151 +78,544 @@ public class RemoteContentProvider extends ContentProvider {
     }
 
     private ContentProvider getContentProvider(final Uri uri) {
-        final PluginManager pluginManager = PluginManager.getInstance(getContext());
         Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
         final String auth = pluginUri.getAuthority();
-        ContentProvider cachedProvider = sCachedProviders.get(auth);
-        if (cachedProvider != null) {
-            return cachedProvider;
-        }
-
-        synchronized (sCachedProviders) {
-            LoadedPlugin plugin = pluginManager.getLoadedPlugin(uri.getQueryParameter(KEY_PKG));
-            if (plugin == null) {
-                try {
-                    pluginManager.loadPlugin(new File(uri.getQueryParameter(KEY_PLUGIN)));
-                } catch (Exception e) {
-                    Log.w(TAG, e);
+        FutureTask<ContentProvider> future = sCachedProviders.get(auth);
+        if (future == null) {
+            final PluginManager pluginManager = PluginManager.getInstance(getContext());
+            future = putIfAbsent(sCachedProviders, auth, new Callable<ContentProvider>() {
+                @Override
+                public ContentProvider call() throws Exception {
+                    return createContentProvider(pluginManager, uri, auth);
                 }
+            });
+        }
+
+        return getResult(sCachedProviders, auth, future);
+    }
+
+    private static ContentProvider createContentProvider(final PluginManager pluginManager, Uri uri, String auth) throws Exception {
+        final String pkg = uri.getQueryParameter(KEY_PKG);
+        LoadedPlugin plugin = pluginManager.getLoadedPlugin(pkg);
+        if (plugin == null) {
+            final File apk = new File(uri.getQueryParameter(KEY_PLUGIN));
+            FutureTask<LoadedPlugin> loading = putIfAbsent(sLoadingPlugins, pkg, new Callable<LoadedPlugin>() {
+                @Override
+                public LoadedPlugin call() throws Exception {
+                    LoadedPlugin loaded = pluginManager.getLoadedPlugin(pkg);
+                    if (loaded == null) {
+                        pluginManager.loadPlugin(apk);
+                        loaded = pluginManager.getLoadedPlugin(pkg);
+                    }
+                    return loaded;
+                }
+            });
+            plugin = getResult(sLoadingPlugins, pkg, loading);
+            // only keep the in-flight loading, the loaded plugin is held by PluginManager.
+            sLoadingPlugins.remove(pkg, loading);
+        }
+
+        ProviderInfo providerInfo = pluginManager.resolveContentProvider(auth, 0);
+        if (plugin == null || providerInfo == null) {
+            return null;
+        }
+
+        return newContentProvider(plugin, providerInfo);
+    }
+
+    /**
+     * Returns the plugin provider instance of the current process, and creates it as needed.
+     * It's used by the daemon process and by the in-process provider mode of the plugin process,
+     * see {@link PluginManager#getIContentProvider(ProviderInfo)}.
+     */
+    public static ContentProvider getContentProvider(final LoadedPlugin plugin, final ProviderInfo providerInfo) {
+        String auth = PluginUtil.getAuthorities(providerInfo)[0];
+        FutureTask<ContentProvider> future = sCachedProviders.get(auth);
+        if (future == null) {
+            future = putIfAbsent(sCachedProviders, auth, new Callable<ContentProvider>() {
+                @Override
+                public ContentProvider call() throws Exception {
+                    return newContentProvider(plugin, providerInfo);
+                }
+            });
+        }
+
+        if (!future.isDone() && RunUtil.isMainThread()) {
+            // The creator in another thread waits for the ui thread to instantiate the provider,
+            // so the ui thread instantiates it in place, and the creator gets the same instance.
+            try {
+                return newContentProvider(plugin, providerInfo);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+                return null;
             }
+        }
+
+        return getResult(sCachedProviders, auth, future);
+    }
 
-            final ProviderInfo providerInfo = pluginManager.resolveContentProvider(auth, 0);
-            if (providerInfo != null) {
-                RunUtil.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            LoadedPlugin loadedPlugin = pluginManager.getLoadedPlugin(uri.getQueryParameter(KEY_PKG));
-                            ContentProvider contentProvider = (ContentProvider) Class.forName(providerInfo.name).newInstance();
-                            contentProvider.attachInfo(loadedPlugin.getPluginContext(), providerInfo);
-                            sCachedProviders.put(auth, contentProvider);
-                        } catch (Exception e) {
-                            Log.w(TAG, e);
-                        }
+    /**
+     * Instantiate the provider on ui thread, or return the instance created by another caller.
+     */
+    private static ContentProvider newContentProvider(LoadedPlugin plugin, final ProviderInfo providerInfo) throws Exception {
+        TraceUtil.beginSection("VA.provider.create", providerInfo.name);
+        try {
+            final Context pluginContext = plugin.getPluginContext();
+            final String auth = PluginUtil.getAuthorities(providerInfo)[0];
+            return RunUtil.callOnUiThread(new Callable<ContentProvider>() {
+                @Override
+                public ContentProvider call() throws Exception {
+                    ContentProvider contentProvider = sProviderInstances.get(auth);
+                    if (contentProvider == null) {
+                        contentProvider = (ContentProvider) Class.forName(providerInfo.name).newInstance();
+                        contentProvider.attachInfo(pluginContext, providerInfo);
+                        sProviderInstances.put(auth, contentProvider);
                     }
-                }, true);
-                return sCachedProviders.get(auth);
+                    return contentProvider;
+                }
+            });
+        } finally {
+            TraceUtil.endSection();
+        }
+    }
+
+    /**
+     * Drop the cached providers of the plugin, see {@link PluginManager#unloadPlugin(String)}.
+     */
+    public static void forgetPlugin(LoadedPlugin plugin) {
+        ProviderInfo[] providers = plugin.getPackageInfo().providers;
+        if (providers != null) {
+            for (ProviderInfo providerInfo : providers) {
+                String[] authorities = PluginUtil.getAuthorities(providerInfo);
+                for (String authority : authorities) {
+                    sCachedProviders.remove(authority);
+                }
+                sProviderInstances.remove(authorities[0]);
             }
         }
+        sLoadingPlugins.remove(plugin.getPackageName());
+    }
 
-        return null;
+    /**
+     * Returns the future mapped to the key, or maps and runs a new one in the caller thread.
+     * Concurrent callers of the same key wait for the single running future.
+     */
+    private static <T> FutureTask<T> putIfAbsent(ConcurrentHashMap<String, FutureTask<T>> map, String key, Callable<T> callable) {
+        FutureTask<T> future = map.get(key);
+        if (future != null) {
+            return future;
+        }
+
+        FutureTask<T> newFuture = new FutureTask<>(callable);
+        future = map.putIfAbsent(key, newFuture);
+        if (future == null) {
+            future = newFuture;
+            newFuture.run();
+        }
+        return future;
+    }
+
+    /**
+     * Waits for the future, failed or empty results are unmapped so that the next call could retry.
+     */
+    private static <T> T getResult(ConcurrentHashMap<String, FutureTask<T>> map, String key, FutureTask<T> future) {
+        T result = null;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, e.getCause());
+        }
+
+        if (result == null) {
+            map.remove(key, future);
+        }
+        return result;
     }
 
     @Override
     public String getType(Uri uri) {
-        ContentProvider provider = getContentProvider(uri);
-        Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
-        if (provider != null) {
-            return provider.getType(pluginUri);
-        }
+        TraceUtil.beginSection("VA.provider.getType");
+        try {
+            ContentProvider provider = getContentProvider(uri);
+            Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
+            if (provider != null) {
+                return provider.getType(pluginUri);
+            }
 
-        return null;
+            return null;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        ContentProvider provider = getContentProvider(uri);
-        Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
-        if (provider != null) {
-            return provider.query(pluginUri, projection, selection, selectionArgs, sortOrder);
-        }
+        TraceUtil.beginSection("VA.provider.query");
+        try {
+            ContentProvider provider = getContentProvider(uri);
+            Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
+            if (provider != null) {
+                return provider.query(pluginUri, projection, selection, selectionArgs, sortOrder);
+            }
 
-        return null;
+            return null;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        ContentProvider provider = getContentProvider(uri);
-        Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
-        if (provider != null) {
-            return provider.insert(pluginUri, values);
-        }
+        TraceUtil.beginSection("VA.provider.insert");
+        try {
+            ContentProvider provider = getContentProvider(uri);
+            Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
+            if (provider != null) {
+                return provider.insert(pluginUri, values);
+            }
 
-        return uri;
+            return uri;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        ContentProvider provider = getContentProvider(uri);
-        Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
-        if (provider != null) {
-            return provider.delete(pluginUri, selection, selectionArgs);
-        }
+        TraceUtil.beginSection("VA.provider.delete");
+        try {
+            ContentProvider provider = getContentProvider(uri);
+            Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
+            if (provider != null) {
+                return provider.delete(pluginUri, selection, selectionArgs);
+            }
 
-        return 0;
+            return 0;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        ContentProvider provider = getContentProvider(uri);
-        Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
-        if (provider != null) {
-            return provider.update(pluginUri, values, selection, selectionArgs);
-        }
+        TraceUtil.beginSection("VA.provider.update");
+        try {
+            ContentProvider provider = getContentProvider(uri);
+            Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
+            if (provider != null) {
+                return provider.update(pluginUri, values, selection, selectionArgs);
+            }
 
-        return 0;
+            return 0;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        ContentProvider provider = getContentProvider(uri);
-        Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
-        if (provider != null) {
-            return provider.bulkInsert(pluginUri, values);
-        }
+        TraceUtil.beginSection("VA.provider.bulkInsert");
+        try {
+            ContentProvider provider = getContentProvider(uri);
+            Uri pluginUri = Uri.parse(uri.getQueryParameter(KEY_URI));
+            if (provider != null) {
+                return provider.bulkInsert(pluginUri, values);
+            }
 
-        return 0;
+            return 0;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
+    /**
+     * Operations are grouped by the authority of their plugin uri, and every group is applied as
+     * one batch on its own provider, so that each provider keeps its transaction semantics.
+     * Operations are copied with the hidden copy constructor. Back references of a group which
+     * doesn't start the batch are rewritten to the positions within the group, and a batch
+     * referring to the result of another group is rejected before anything is applied.
+     * Groups are applied one after another in the order they first appear, and each of them is
+     * committed on its own: when a group fails, the groups applied before it are not rolled back.
+     */
     @NonNull
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        TraceUtil.beginSection("VA.provider.applyBatch");
         try {
-            Field uriField = ContentProviderOperation.class.getDeclaredField("mUri");
-            uriField.setAccessible(true);
-            for (ContentProviderOperation operation : operations) {
-                Uri pluginUri = Uri.parse(operation.getUri().getQueryParameter(KEY_URI));
-                uriField.set(operation, pluginUri);
+            final int size = operations.size();
+            if (size == 0) {
+                return new ContentProviderResult[0];
+            }
+
+            // keep the insertion order so that groups are applied in the order they first appear
+            Map<String, BatchGroup> groups = new LinkedHashMap<>();
+            Uri[] pluginUris = new Uri[size];
+            BatchGroup lastGroup = null;
+            for (int i = 0; i < size; i++) {
+                Uri wrapperUri = operations.get(i).getUri();
+                Uri pluginUri = Uri.parse(wrapperUri.getQueryParameter(KEY_URI));
+                String auth = pluginUri.getAuthority();
+                BatchGroup group = lastGroup != null && lastGroup.auth.equals(auth) ? lastGroup : groups.get(auth);
+                if (group == null) {
+                    group = new BatchGroup(auth, wrapperUri);
+                    groups.put(auth, group);
+                }
+                group.add(i);
+                pluginUris[i] = pluginUri;
+                lastGroup = group;
+            }
+
+            // copy every operation before applying anything, an invalid one fails the whole batch.
+            for (BatchGroup group : groups.values()) {
+                // the back references of a group starting the batch already point to the same operations
+                int[] backReferences = group.isPrefix() ? null : group.getLocalIndexes(size);
+                for (int i = 0; i < group.count; i++) {
+                    int index = group.indexes[i];
+                    try {
+                        group.operations.add(copyOperation(operations.get(index), pluginUris[index], backReferences));
+                    } catch (IllegalArgumentException e) {
+                        throw new OperationApplicationException("Invalid operation " + index + ": " + e.getMessage());
+                    }
+                }
             }
-        } catch (Exception e) {
-            return new ContentProviderResult[0];
+
+            // resolve all providers before applying anything, a missing one fails the whole batch.
+            for (BatchGroup group : groups.values()) {
+                group.provider = getContentProvider(group.wrapperUri);
+                if (group.provider == null) {
+                    Log.w(TAG, "applyBatch: no provider for " + group.auth);
+                    return new ContentProviderResult[0];
+                }
+            }
+
+            ContentProviderResult[] results = new ContentProviderResult[size];
+            for (BatchGroup group : groups.values()) {
+                ContentProviderResult[] groupResults = group.provider.applyBatch(group.operations);
+                for (int i = 0; i < groupResults.length; i++) {
+                    results[group.indexes[i]] = groupResults[i];
+                }
+            }
+
+            return results;
+        } finally {
+            TraceUtil.endSection();
         }
+    }
 
-        if (operations.size() > 0) {
-            ContentProvider provider = getContentProvider(operations.get(0).getUri());
-            if (provider != null) {
-                return provider.applyBatch(operations);
+    /**
+     * Copy the operation with another uri. When backReferences isn't null, a back reference to
+     * the operation j is rewritten to backReferences[j].
+     * @throws IllegalArgumentException if a back reference is rewritten to a negative index, or the
+     * back references of the operation are not readable
+     */
+    static ContentProviderOperation copyOperation(ContentProviderOperation operation, Uri uri, @Nullable int[] backReferences) {
+        ContentProviderOperation copy = new ContentProviderOperation(operation, uri);
+        if (backReferences != null) {
+            try {
+                BackReferences.rewrite(copy, backReferences);
+            } catch (Reflector.ReflectedException | ClassCastException e) {
+                throw new IllegalArgumentException("unable to rewrite the back references of " + operation, e);
             }
         }
+        return copy;
+    }
 
-        return new ContentProviderResult[0];
+    private static int getBackReference(int index, int[] backReferences) {
+        if (index < 0 || index >= backReferences.length || backReferences[index] < 0) {
+            throw new IllegalArgumentException("back reference " + index + " is out of the operations of the same provider");
+        }
+        return backReferences[index];
     }
 
-    @Override
-    public Bundle call(String method, String arg, Bundle extras) {
-        Log.d(TAG, "call " + method + " with extras : " + extras);
+    /**
+     * Hidden back reference fields of ContentProviderOperation. The copy shares them with the
+     * original operation, so they are replaced instead of modified.
+     * Before API 30 they are kept apart from the values and selection args, since API 30 they are
+     * BackReference values mixed in the values, extras and selection args.
+     */
+    private static final class BackReferences {
+
+        static void rewrite(ContentProviderOperation operation, int[] backReferences) throws Reflector.ReflectedException {
+            if (Build.VERSION.SDK_INT >= 30) {
+                Mixed.rewrite(operation, backReferences);
+            } else {
+                Separated.rewrite(operation, backReferences);
+            }
+        }
 
-        if (extras == null || extras.getString(KEY_WRAPPER_URI) == null) {
-            return null;
+        /**
+         * @return the field, or null if missing, then the rewrite fails when it's reached
+         */
+        static Reflector field(Class<?> type, String name) {
+            try {
+                return Reflector.on(type).field(name);
+            } catch (Reflector.ReflectedException e) {
+                Log.w(TAG, e);
+                return null;
+            }
         }
 
-        Uri uri = Uri.parse(extras.getString(KEY_WRAPPER_URI));
-        ContentProvider provider = getContentProvider(uri);
-        if (provider != null) {
-            return provider.call(method, arg, extras);
+        static Reflector checked(Reflector field) throws Reflector.ReflectedException {
+            if (field == null) {
+                throw new Reflector.ReflectedException("Back reference fields were not found!");
+            }
+            return field;
         }
+    }
+
+    private static final class Separated {
+        static final Reflector VALUES_BACK_REFERENCES = BackReferences.field(ContentProviderOperation.class, "mValuesBackReferences");
+        static final Reflector SELECTION_ARGS_BACK_REFERENCES = BackReferences.field(ContentProviderOperation.class, "mSelectionArgsBackReferences");
+
+        static void rewrite(ContentProviderOperation operation, int[] backReferences) throws Reflector.ReflectedException {
+            Reflector valuesField = BackReferences.checked(VALUES_BACK_REFERENCES);
+            Reflector selectionArgsField = BackReferences.checked(SELECTION_ARGS_BACK_REFERENCES);
 
-        return null;
+            ContentValues valuesBackReferences = valuesField.get(operation);
+            if (valuesBackReferences != null) {
+                ContentValues newBackReferences = new ContentValues(valuesBackReferences.size());
+                for (Map.Entry<String, Object> entry : valuesBackReferences.valueSet()) {
+                    newBackReferences.put(entry.getKey(), getBackReference(((Number) entry.getValue()).intValue(), backReferences));
+                }
+                valuesField.set(operation, newBackReferences);
+            }
+
+            Map<Integer, Integer> selectionArgsBackReferences = selectionArgsField.get(operation);
+            if (selectionArgsBackReferences != null) {
+                Map<Integer, Integer> newBackReferences = new HashMap<>(selectionArgsBackReferences.size());
+                for (Map.Entry<Integer, Integer> entry : selectionArgsBackReferences.entrySet()) {
+                    newBackReferences.put(entry.getKey(), getBackReference(entry.getValue(), backReferences));
+                }
+                selectionArgsField.set(operation, newBackReferences);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static final class Mixed {
+        static final Class<?> BACK_REFERENCE = backReferenceClass();
+        static final Reflector VALUES = BackReferences.field(ContentProviderOperation.class, "mValues");
+        static final Reflector EXTRAS = BackReferences.field(ContentProviderOperation.class, "mExtras");
+        static final Reflector SELECTION_ARGS = BackReferences.field(ContentProviderOperation.class, "mSelectionArgs");
+        static final Reflector FROM_INDEX = BackReferences.field(BACK_REFERENCE, "fromIndex");
+        static final Reflector FROM_KEY = BackReferences.field(BACK_REFERENCE, "fromKey");
+        static final Reflector CONSTRUCTOR = backReferenceConstructor();
+
+        static void rewrite(ContentProviderOperation operation, int[] backReferences) throws Reflector.ReflectedException {
+            rewrite(operation, BackReferences.checked(VALUES), backReferences);
+            rewrite(operation, BackReferences.checked(EXTRAS), backReferences);
+            rewrite(operation, BackReferences.checked(SELECTION_ARGS), backReferences);
+        }
+
+        private static void rewrite(ContentProviderOperation operation, Reflector field, int[] backReferences) throws Reflector.ReflectedException {
+            ArrayMap<Object, Object> map = field.get(operation);
+            if (map == null) {
+                return;
+            }
+
+            ArrayMap<Object, Object> newMap = null;
+            for (int i = 0, size = map.size(); i < size; i++) {
+                Object value = map.valueAt(i);
+                if (!BACK_REFERENCE.isInstance(value)) {
+                    continue;
+                }
+                if (newMap == null) {
+                    newMap = new ArrayMap<>(map);
+                }
+                Integer fromIndex = BackReferences.checked(FROM_INDEX).get(value);
+                String fromKey = BackReferences.checked(FROM_KEY).get(value);
+                Object newValue = BackReferences.checked(CONSTRUCTOR).newInstance(getBackReference(fromIndex, backReferences), fromKey);
+                newMap.setValueAt(i, newValue);
+            }
+
+            if (newMap != null) {
+                field.set(operation, newMap);
+            }
+        }
+
+        private static Class<?> backReferenceClass() {
+            try {
+                return Class.forName("android.content.ContentProviderOperation$BackReference");
+            } catch (ClassNotFoundException e) {
+                Log.w(TAG, e);
+                // nothing is an instance of it, then no back reference is rewritten
+                return Void.class;
+            }
+        }
+
+        private static Reflector backReferenceConstructor() {
+            try {
+                return Reflector.on(BACK_REFERENCE).constructor(int.class, String.class);
+            } catch (Reflector.ReflectedException e) {
+                Log.w(TAG, e);
+                return null;
+            }
+        }
+    }
+
+    private static final class BatchGroup {
+        final String auth;
+        final Uri wrapperUri;
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int[] indexes = new int[4];
+        int count;
+        ContentProvider provider;
+
+        BatchGroup(String auth, Uri wrapperUri) {
+            this.auth = auth;
+            this.wrapperUri = wrapperUri;
+        }
+
+        void add(int index) {
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            indexes[count++] = index;
+        }
+
+        /**
+         * @return true if the group is the operations 0 to count - 1 of the batch
+         */
+        boolean isPrefix() {
+            return indexes[count - 1] == count - 1;
+        }
+
+        /**
+         * @return the position within the group of every operation of the batch, -1 for the other groups
+         */
+        int[] getLocalIndexes(int size) {
+            int[] localIndexes = new int[size];
+            Arrays.fill(localIndexes, -1);
+            for (int i = 0; i < count; i++) {
+                localIndexes[indexes[i]] = i;
+            }
+            return localIndexes;
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        TraceUtil.beginSection("VA.provider.call");
+        try {
+            Log.d(TAG, "call " + method + " with extras : " + extras);
+
+            if (extras == null || extras.getString(KEY_WRAPPER_URI) == null) {
+                return null;
+            }
+
+            Uri uri = Uri.parse(extras.getString(KEY_WRAPPER_URI));
+            ContentProvider provider = getContentProvider(uri);
+            if (provider != null) {
+                return provider.call(method, arg, extras);
+            }
+
+            return null;
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     public static String getAuthority(Context context) {
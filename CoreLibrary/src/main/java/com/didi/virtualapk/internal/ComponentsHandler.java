@@ -24,11 +24,16 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.os.IBinder;
-import android.support.v4.util.ArrayMap;
 import android.util.Log;
 
 import com.didi.virtualapk.PluginManager;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -44,9 +49,8 @@ public class ComponentsHandler {
     private StubActivityInfo mStubActivityInfo = new StubActivityInfo();
 
 
-    private ArrayMap<ComponentName, Service> mServices = new ArrayMap<ComponentName, Service>();
-    private ArrayMap<IBinder, Intent> mBoundServices = new ArrayMap<IBinder, Intent>();
-    private ArrayMap<Service, AtomicInteger> mServiceCounters = new ArrayMap<Service, AtomicInteger>();
+    private final ConcurrentHashMap<ComponentName, ServiceRecord> mServices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<IBinder, Intent> mBoundServices = new ConcurrentHashMap<>();
 
     public ComponentsHandler(PluginManager pluginManager) {
         mPluginManager = pluginManager;
@@ -104,7 +108,17 @@ public class ComponentsHandler {
 
 
     public AtomicInteger getServiceCounter(Service service) {
-        return this.mServiceCounters.get(service);
+        for (ServiceRecord record : this.mServices.values()) {
+            if (record.mService == service) {
+                return record.mStartCounter;
+            }
+        }
+        return null;
+    }
+
+    public AtomicInteger getServiceCounter(ComponentName component) {
+        ServiceRecord record = this.mServices.get(component);
+        return record != null ? record.mStartCounter : null;
     }
 
     /**
@@ -114,21 +128,73 @@ public class ComponentsHandler {
      * @return
      */
     public Service getService(ComponentName component) {
+        ServiceRecord record = this.mServices.get(component);
+        return record != null ? record.mService : null;
+    }
+
+    /**
+     * Retrieve the state of the started service by component name
+     *
+     * @param component
+     * @return
+     */
+    public ServiceRecord getServiceRecord(ComponentName component) {
         return this.mServices.get(component);
     }
 
     /**
-     * Put the started service into service registry, and then increase the counter associate with
+     * Retrieve the started service, or create it once by the creator if it's absent. Concurrent
+     * callers for the same component wait for the single creation rather than creating another one.
+     *
+     * @param component
+     * @param creator
+     * @return
+     */
+    public Service getOrCreateService(ComponentName component, Callable<Service> creator) throws Exception {
+        ServiceRecord record = this.mServices.get(component);
+        if (record != null && record.mService != null) {
+            return record.mService;
+        }
+
+        if (record == null) {
+            ServiceRecord newRecord = new ServiceRecord(component);
+            record = this.mServices.putIfAbsent(component, newRecord);
+            if (record == null) {
+                record = newRecord;
+            }
+        }
+
+        synchronized (record) {
+            if (record.mService == null) {
+                Service service = null;
+                try {
+                    service = creator.call();
+                } finally {
+                    if (service == null) {
+                        // a failed creation must not be counted as a running service
+                        this.mServices.remove(component, record);
+                    }
+                }
+                if (service == null) {
+                    return null;
+                }
+                record.mService = service;
+            }
+            return record.mService;
+        }
+    }
+
+    /**
+     * Put the started service into service registry, and then reset the counter associate with
      * the service
      *
      * @param component
      * @param service
      */
     public void rememberService(ComponentName component, Service service) {
-        synchronized (this.mServices) {
-            this.mServices.put(component, service);
-            this.mServiceCounters.put(service, new AtomicInteger(0));
-        }
+        ServiceRecord record = new ServiceRecord(component);
+        record.mService = service;
+        this.mServices.put(component, record);
     }
 
     /**
@@ -138,10 +204,71 @@ public class ComponentsHandler {
      * @return
      */
     public Service forgetService(ComponentName component) {
-        synchronized (this.mServices) {
-            Service service = this.mServices.remove(component);
-            this.mServiceCounters.remove(service);
-            return service;
+        ServiceRecord record = this.mServices.remove(component);
+        return record != null ? record.mService : null;
+    }
+
+    /**
+     * Remove all the services of the plugin from service registry, together with their bound connections
+     *
+     * @param packageName
+     * @return the running services removed
+     */
+    public List<Service> forgetServices(String packageName) {
+        List<Service> services = new ArrayList<>();
+        for (ServiceRecord record : this.mServices.values()) {
+            if (!record.mComponent.getPackageName().equals(packageName)
+                || !this.mServices.remove(record.mComponent, record)) {
+                continue;
+            }
+            for (IBinder connection : record.mConnections) {
+                this.mBoundServices.remove(connection);
+            }
+            if (record.mService != null) {
+                services.add(record.mService);
+            }
+        }
+        return services;
+    }
+
+    /**
+     * Check if any service of the plugin is running or bound
+     *
+     * @param packageName
+     * @return
+     */
+    public boolean hasServices(String packageName) {
+        return getServiceCount(packageName) > 0;
+    }
+
+    /**
+     * Count the services of the plugin which are running or bound, the ones still being created are not counted
+     *
+     * @param packageName
+     * @return
+     */
+    public int getServiceCount(String packageName) {
+        int count = 0;
+        for (ServiceRecord record : this.mServices.values()) {
+            if (record.mService != null && record.mComponent.getPackageName().equals(packageName)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forget the stub activities dispatched to the activities of the plugin
+     *
+     * @param plugin
+     */
+    public void forgetStubActivities(LoadedPlugin plugin) {
+        ActivityInfo[] activities = plugin.getPackageInfo().activities;
+        if (activities == null) {
+            return;
+        }
+        for (ActivityInfo info : activities) {
+            mStubActivityInfo.forgetStubActivity(info.name);
         }
     }
 
@@ -152,10 +279,14 @@ public class ComponentsHandler {
      * @return
      */
     public Intent forgetIServiceConnection(IBinder iServiceConnection) {
-        synchronized (this.mBoundServices) {
-            Intent intent = this.mBoundServices.remove(iServiceConnection);
-            return intent;
+        Intent intent = this.mBoundServices.remove(iServiceConnection);
+        if (intent != null && intent.getComponent() != null) {
+            ServiceRecord record = this.mServices.get(intent.getComponent());
+            if (record != null) {
+                record.mConnections.remove(iServiceConnection);
+            }
         }
+        return intent;
     }
 
     /**
@@ -165,8 +296,12 @@ public class ComponentsHandler {
      * @return
      */
     public void remberIServiceConnection(IBinder iServiceConnection, Intent intent) {
-        synchronized (this.mBoundServices) {
-            mBoundServices.put(iServiceConnection, intent);
+        this.mBoundServices.put(iServiceConnection, intent);
+        if (intent.getComponent() != null) {
+            ServiceRecord record = this.mServices.get(intent.getComponent());
+            if (record != null) {
+                record.mConnections.add(iServiceConnection);
+            }
         }
     }
 
@@ -177,7 +312,37 @@ public class ComponentsHandler {
      * @return
      */
     public boolean isServiceAvailable(ComponentName component) {
-        return this.mServices.containsKey(component);
+        return getService(component) != null;
+    }
+
+    /**
+     * State of a running plugin service: the instance, the start counter and the bound connections.
+     */
+    public static class ServiceRecord {
+        private final ComponentName mComponent;
+        private final AtomicInteger mStartCounter = new AtomicInteger(0);
+        private final Set<IBinder> mConnections = Collections.newSetFromMap(new ConcurrentHashMap<IBinder, Boolean>());
+        private volatile Service mService;
+
+        ServiceRecord(ComponentName component) {
+            this.mComponent = component;
+        }
+
+        public ComponentName getComponent() {
+            return mComponent;
+        }
+
+        public Service getService() {
+            return mService;
+        }
+
+        public int getStartCount() {
+            return mStartCounter.get();
+        }
+
+        public Set<IBinder> getConnections() {
+            return Collections.unmodifiableSet(mConnections);
+        }
     }
 
 }
@@ -23,6 +23,7 @@ public class Constants {
     public static final String KEY_IS_PLUGIN = "isPlugin";
     public static final String KEY_TARGET_PACKAGE = "target.package";
     public static final String KEY_TARGET_ACTIVITY = "target.activity";
+    public static final String KEY_LAUNCH_ID = "launch.id";
 
     public static final String OPTIMIZE_DIR = "dex";
     public static final String NATIVE_DIR = "valibs";
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.internal;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.util.Log;
+
+import com.didi.virtualapk.internal.utils.PluginUtil;
+import com.didi.virtualapk.utils.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of starting the plugin activities, from {@link VAInstrumentation#execStartActivity} to the first
+ * onResume. The stages of a launch are correlated by the launch id carried in the intent extras,
+ * they are aggregated into per-component histograms, see {@link #getStats(ComponentName)}.
+ */
+public class LaunchTracker {
+
+    public static final String TAG = Constants.TAG_PREFIX + "LaunchTracker";
+
+    /**
+     * execStartActivity is called.
+     */
+    public static final int STAGE_START = 0;
+    /**
+     * The intent has been dispatched to the stub activity.
+     */
+    public static final int STAGE_DISPATCH = 1;
+    /**
+     * The LAUNCH_ACTIVITY message is handled on the main thread, it's skipped on P and above.
+     */
+    public static final int STAGE_LAUNCH_MESSAGE = 2;
+    public static final int STAGE_NEW_ACTIVITY = 3;
+    /**
+     * The activity has been injected with the plugin's context and resources, just before onCreate.
+     */
+    public static final int STAGE_INJECT = 4;
+    public static final int STAGE_CREATE = 5;
+    public static final int STAGE_RESUME = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+        "start", "dispatch", "launchMessage", "newActivity", "inject", "create", "resume",
+    };
+
+    // launches which never resume, e.g. the start failed, are dropped beyond this count.
+    private static final int MAX_PENDING_LAUNCHES = 32;
+
+    private final AtomicLong mNextLaunchId = new AtomicLong(1);
+    private final Map<Long, Launch> mPendingLaunches = new LinkedHashMap<>();
+    protected final ConcurrentHashMap<ComponentName, LaunchStats> mStats = new ConcurrentHashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    /**
+     * Mark the intent with a new launch id if it starts a plugin activity.
+     *
+     * @param startNanos the time execStartActivity is called by {@link System#nanoTime()}
+     */
+    public void onLaunchStarted(Intent intent, long startNanos) {
+        if (!PluginUtil.isIntentFromPlugin(intent)) {
+            return;
+        }
+        ComponentName component = PluginUtil.getComponent(intent);
+        if (component == null) {
+            return;
+        }
+
+        Launch launch = new Launch(mNextLaunchId.getAndIncrement(), component);
+        launch.mStageNanos[STAGE_START] = startNanos;
+        launch.mStageNanos[STAGE_DISPATCH] = System.nanoTime();
+        intent.putExtra(Constants.KEY_LAUNCH_ID, launch.mId);
+
+        synchronized (mPendingLaunches) {
+            if (mPendingLaunches.size() >= MAX_PENDING_LAUNCHES) {
+                Iterator<Long> iterator = mPendingLaunches.keySet().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+            mPendingLaunches.put(launch.mId, launch);
+        }
+    }
+
+    /**
+     * Record the stage of the launch carried by the intent, nothing happens if the intent isn't launching.
+     */
+    public void onStage(Intent intent, int stage) {
+        if (intent == null) {
+            return;
+        }
+        long id;
+        try {
+            id = intent.getLongExtra(Constants.KEY_LAUNCH_ID, 0);
+        } catch (Exception e) {
+            Log.w(TAG, e);
+            return;
+        }
+        if (id == 0) {
+            return;
+        }
+
+        Launch launch;
+        synchronized (mPendingLaunches) {
+            launch = mPendingLaunches.get(id);
+            if (launch == null) {
+                // launched by a previous process or already resumed, e.g. recreated.
+                return;
+            }
+            launch.mStageNanos[stage] = System.nanoTime();
+            if (stage != STAGE_RESUME) {
+                return;
+            }
+            mPendingLaunches.remove(id);
+        }
+
+        onLaunchFinished(launch);
+    }
+
+    public void onStage(Activity activity, int stage) {
+        onStage(activity.getIntent(), stage);
+    }
+
+    protected void onLaunchFinished(Launch launch) {
+        LaunchStats stats = mStats.get(launch.mComponent);
+        if (stats == null) {
+            stats = new LaunchStats();
+            LaunchStats old = mStats.putIfAbsent(launch.mComponent, stats);
+            if (old != null) {
+                stats = old;
+            }
+        }
+        stats.record(launch);
+        Log.d(TAG, "Launched " + launch);
+
+        Listener[] listeners;
+        synchronized (mListeners) {
+            listeners = mListeners.toArray(new Listener[mListeners.size()]);
+        }
+        for (Listener listener : listeners) {
+            listener.onLaunchFinished(launch);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    public LaunchStats getStats(ComponentName component) {
+        return mStats.get(component);
+    }
+
+    public Map<ComponentName, LaunchStats> getAllStats() {
+        return new HashMap<>(mStats);
+    }
+
+    /**
+     * Drop the stats of the plugin's activities.
+     */
+    public void forget(String packageName) {
+        for (ComponentName component : mStats.keySet()) {
+            if (component.getPackageName().equals(packageName)) {
+                mStats.remove(component);
+            }
+        }
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread when the plugin activity is resumed the first time.
+         */
+        void onLaunchFinished(Launch launch);
+    }
+
+    /**
+     * A launch of a plugin activity.
+     */
+    public static class Launch {
+        private final long mId;
+        private final ComponentName mComponent;
+        private final long[] mStageNanos = new long[STAGE_COUNT];
+
+        Launch(long id, ComponentName component) {
+            mId = id;
+            mComponent = component;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public ComponentName getComponent() {
+            return mComponent;
+        }
+
+        /**
+         * @return time in ms from the previous reached stage to the stage, -1 if the stage isn't reached
+         */
+        public long getStageMillis(int stage) {
+            if (mStageNanos[stage] == 0) {
+                return -1;
+            }
+            for (int i = stage - 1; i >= 0; i--) {
+                if (mStageNanos[i] != 0) {
+                    return TimeUnit.NANOSECONDS.toMillis(mStageNanos[stage] - mStageNanos[i]);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return time in ms from {@link #STAGE_START} to {@link #STAGE_RESUME}
+         */
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mStageNanos[STAGE_RESUME] - mStageNanos[STAGE_START]);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(mComponent.getClassName()).append('#').append(mId).append(" +").append(getTotalMillis()).append("ms [");
+            for (int i = STAGE_DISPATCH; i < STAGE_COUNT; i++) {
+                builder.append(i == STAGE_DISPATCH ? "" : ", ").append(STAGE_NAMES[i]).append('=').append(getStageMillis(i));
+            }
+            return builder.append(']').toString();
+        }
+    }
+
+    /**
+     * Latency histograms of the launches of a plugin activity, the total and each stage.
+     */
+    public static class LaunchStats {
+        private final LatencyHistogram mTotal = new LatencyHistogram();
+        private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+
+        LaunchStats() {
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                mStages[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(Launch launch) {
+            mTotal.record(launch.getTotalMillis());
+            for (int i = STAGE_DISPATCH; i < STAGE_COUNT; i++) {
+                mStages[i].record(launch.getStageMillis(i));
+            }
+        }
+
+        public LatencyHistogram getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * @param stage one of STAGE_*, the time from the previous reached stage
+         */
+        public LatencyHistogram getStage(int stage) {
+            return mStages[stage];
+        }
+
+        @Override
+        public String toString() {
+            return "total[" + mTotal + "]";
+        }
+    }
+
+}
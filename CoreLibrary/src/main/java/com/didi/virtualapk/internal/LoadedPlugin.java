@@ -17,6 +17,7 @@
 package com.didi.virtualapk.internal;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.app.Application;
 import android.app.Instrumentation;
 import android.content.BroadcastReceiver;
@@ -49,24 +50,29 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.didi.virtualapk.PluginManager;
 import com.didi.virtualapk.internal.utils.DexUtil;
 import com.didi.virtualapk.internal.utils.PackageParserCompat;
 import com.didi.virtualapk.internal.utils.PluginUtil;
+import com.didi.virtualapk.utils.ApkArchive;
 import com.didi.virtualapk.utils.Reflector;
 import com.didi.virtualapk.utils.RunUtil;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import dalvik.system.DexClassLoader;
 
@@ -77,6 +83,12 @@ public class LoadedPlugin {
 
     public static final String TAG = Constants.TAG_PREFIX + "LoadedPlugin";
 
+    // Caches of Resources (ResourcesImpl on N+) keyed by theme, the names differ between versions
+    private static final String[] RESOURCES_CACHES = {
+        "mDrawableCache", "mColorDrawableCache", "mColorStateListCache", "mComplexColorCache",
+        "mAnimatorCache", "mStateListAnimatorCache",
+    };
+
     protected File getDir(Context context, String name) {
         return context.getDir(name, Context.MODE_PRIVATE);
     }
@@ -144,44 +156,77 @@ public class LoadedPlugin {
     protected Map<ComponentName, InstrumentationInfo> mInstrumentationInfos;
 
     protected Application mApplication;
+    protected final List<BroadcastReceiver> mReceivers = new ArrayList<>();
+    protected volatile long mLastAccessTime = SystemClock.uptimeMillis();
+    protected final PluginStats mStats = new PluginStats(this);
 
     public LoadedPlugin(PluginManager pluginManager, Context context, File apk) throws Exception {
         this.mPluginManager = pluginManager;
         this.mHostContext = context;
         this.mLocation = apk.getAbsolutePath();
-        this.mPackage = PackageParserCompat.parsePackage(context, apk, PackageParser.PARSE_MUST_BE_APK);
-        this.mPackage.applicationInfo.metaData = this.mPackage.mAppMetaData;
-        this.mPackageInfo = new PackageInfo();
-        this.mPackageInfo.applicationInfo = this.mPackage.applicationInfo;
-        this.mPackageInfo.applicationInfo.sourceDir = apk.getAbsolutePath();
+        long phaseStart;
+        // The central directory is read once and shared by the stages reading the apk.
+        ApkArchive archive = ApkArchive.open(apk);
+        try {
+            this.mStats.onLoadStarted(archive);
+            phaseStart = this.mStats.beginPhase(PluginStats.PHASE_PARSE);
+            try {
+                this.mPackage = PackageParserCompat.parsePackage(context, apk, PackageParser.PARSE_MUST_BE_APK);
+                this.mPackage.applicationInfo.metaData = this.mPackage.mAppMetaData;
+                this.mPackageInfo = new PackageInfo();
+                this.mPackageInfo.applicationInfo = this.mPackage.applicationInfo;
+                this.mPackageInfo.applicationInfo.sourceDir = apk.getAbsolutePath();
     
-        if (Build.VERSION.SDK_INT >= 28
-            || (Build.VERSION.SDK_INT == 27 && Build.VERSION.PREVIEW_SDK_INT != 0)) { // Android P Preview
+                if (Build.VERSION.SDK_INT >= 28
+                    || (Build.VERSION.SDK_INT == 27 && Build.VERSION.PREVIEW_SDK_INT != 0)) { // Android P Preview
+                    try {
+                        this.mPackageInfo.signatures = this.mPackage.mSigningDetails.signatures;
+                    } catch (Throwable e) {
+                        PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_SIGNATURES);
+                        this.mPackageInfo.signatures = info.signatures;
+                    }
+                } else {
+                    this.mPackageInfo.signatures = this.mPackage.mSignatures;
+                }
+        
+                this.mPackageInfo.packageName = this.mPackage.packageName;
+                if (pluginManager.getLoadedPlugin(mPackageInfo.packageName) != null) {
+                    throw new RuntimeException("plugin has already been loaded : " + mPackageInfo.packageName);
+                }
+                this.mPackageInfo.versionCode = this.mPackage.mVersionCode;
+                this.mPackageInfo.versionName = this.mPackage.mVersionName;
+                this.mPackageInfo.permissions = new PermissionInfo[0];
+                this.mPackageManager = createPluginPackageManager();
+                this.mPluginContext = createPluginContext(null);
+                this.mNativeLibDir = getDir(context, Constants.NATIVE_DIR);
+                this.mPackage.applicationInfo.nativeLibraryDir = this.mNativeLibDir.getAbsolutePath();
+            } finally {
+                this.mStats.endPhase(PluginStats.PHASE_PARSE, phaseStart);
+            }
+
+            phaseStart = this.mStats.beginPhase(PluginStats.PHASE_RESOURCES);
             try {
-                this.mPackageInfo.signatures = this.mPackage.mSigningDetails.signatures;
-            } catch (Throwable e) {
-                PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_SIGNATURES);
-                this.mPackageInfo.signatures = info.signatures;
+                this.mResources = createResources(context, getPackageName(), apk);
+            } finally {
+                this.mStats.endPhase(PluginStats.PHASE_RESOURCES, phaseStart);
             }
-        } else {
-            this.mPackageInfo.signatures = this.mPackage.mSignatures;
+
+            phaseStart = this.mStats.beginPhase(PluginStats.PHASE_CLASSLOADER);
+            try {
+                this.mClassLoader = createClassLoader(context, apk, this.mNativeLibDir, context.getClassLoader());
+            } finally {
+                this.mStats.endPhase(PluginStats.PHASE_CLASSLOADER, phaseStart);
+            }
+
+            phaseStart = this.mStats.beginPhase(PluginStats.PHASE_NATIVE_LIB);
+            try {
+                tryToCopyNativeLib(archive);
+            } finally {
+                this.mStats.endPhase(PluginStats.PHASE_NATIVE_LIB, phaseStart);
+            }
+        } finally {
+            archive.close();
         }
-        
-        this.mPackageInfo.packageName = this.mPackage.packageName;
-        if (pluginManager.getLoadedPlugin(mPackageInfo.packageName) != null) {
-            throw new RuntimeException("plugin has already been loaded : " + mPackageInfo.packageName);
-        }
-        this.mPackageInfo.versionCode = this.mPackage.mVersionCode;
-        this.mPackageInfo.versionName = this.mPackage.mVersionName;
-        this.mPackageInfo.permissions = new PermissionInfo[0];
-        this.mPackageManager = createPluginPackageManager();
-        this.mPluginContext = createPluginContext(null);
-        this.mNativeLibDir = getDir(context, Constants.NATIVE_DIR);
-        this.mPackage.applicationInfo.nativeLibraryDir = this.mNativeLibDir.getAbsolutePath();
-        this.mResources = createResources(context, getPackageName(), apk);
-        this.mClassLoader = createClassLoader(context, apk, this.mNativeLibDir, context.getClassLoader());
-
-        tryToCopyNativeLib(apk);
 
         // Cache instrumentations
         Map<ComponentName, InstrumentationInfo> instrumentations = new HashMap<ComponentName, InstrumentationInfo>();
@@ -212,7 +257,9 @@ public class LoadedPlugin {
         Map<String, ProviderInfo> providers = new HashMap<String, ProviderInfo>();
         Map<ComponentName, ProviderInfo> providerInfos = new HashMap<ComponentName, ProviderInfo>();
         for (PackageParser.Provider provider : this.mPackage.providers) {
-            providers.put(provider.info.authority, provider.info);
+            for (String authority : PluginUtil.getAuthorities(provider.info)) {
+                providers.put(authority, provider.info);
+            }
             providerInfos.put(provider.getComponentName(), provider.info);
         }
         this.mProviders = Collections.unmodifiableMap(providers);
@@ -220,24 +267,44 @@ public class LoadedPlugin {
         this.mPackageInfo.providers = providerInfos.values().toArray(new ProviderInfo[providerInfos.size()]);
 
         // Register broadcast receivers dynamically
-        Map<ComponentName, ActivityInfo> receivers = new HashMap<ComponentName, ActivityInfo>();
-        for (PackageParser.Activity receiver : this.mPackage.receivers) {
-            receivers.put(receiver.getComponentName(), receiver.info);
+        phaseStart = this.mStats.beginPhase(PluginStats.PHASE_RECEIVERS);
+        try {
+            Map<ComponentName, ActivityInfo> receivers = new HashMap<ComponentName, ActivityInfo>();
+            for (PackageParser.Activity receiver : this.mPackage.receivers) {
+                receivers.put(receiver.getComponentName(), receiver.info);
     
-            BroadcastReceiver br = BroadcastReceiver.class.cast(getClassLoader().loadClass(receiver.getComponentName().getClassName()).newInstance());
-            for (PackageParser.ActivityIntentInfo aii : receiver.intents) {
-                this.mHostContext.registerReceiver(br, aii);
+                BroadcastReceiver br = BroadcastReceiver.class.cast(getClassLoader().loadClass(receiver.getComponentName().getClassName()).newInstance());
+                for (PackageParser.ActivityIntentInfo aii : receiver.intents) {
+                    this.mHostContext.registerReceiver(br, aii);
+                }
+                this.mReceivers.add(br);
             }
+            this.mReceiverInfos = Collections.unmodifiableMap(receivers);
+            this.mPackageInfo.receivers = receivers.values().toArray(new ActivityInfo[receivers.size()]);
+        } finally {
+            this.mStats.endPhase(PluginStats.PHASE_RECEIVERS, phaseStart);
         }
-        this.mReceiverInfos = Collections.unmodifiableMap(receivers);
-        this.mPackageInfo.receivers = receivers.values().toArray(new ActivityInfo[receivers.size()]);
     
         // try to invoke plugin's application
-        invokeApplication();
+        phaseStart = this.mStats.beginPhase(PluginStats.PHASE_APPLICATION);
+        try {
+            invokeApplication();
+        } finally {
+            this.mStats.endPhase(PluginStats.PHASE_APPLICATION, phaseStart);
+        }
+        this.mStats.onLoadFinished();
+    }
+
+    protected void tryToCopyNativeLib(ApkArchive archive) throws Exception {
+        long size = PluginUtil.copyNativeLib(archive, mHostContext, mPackageInfo, mNativeLibDir);
+        this.mStats.setNativeLibSize(size);
     }
 
-    protected void tryToCopyNativeLib(File apk) throws Exception {
-        PluginUtil.copyNativeLib(apk, mHostContext, mPackageInfo, mNativeLibDir);
+    /**
+     * @return the load cost and memory accounting of the plugin
+     */
+    public PluginStats getStats() {
+        return this.mStats;
     }
 
     public String getLocation() {
@@ -285,24 +352,94 @@ public class LoadedPlugin {
     }
 
     public void invokeApplication() throws Exception {
-        final Exception[] temp = new Exception[1];
         // make sure application's callback is run on ui thread.
-        RunUtil.runOnUiThread(new Runnable() {
+        RunUtil.callOnUiThread(new Callable<Application>() {
             @Override
-            public void run() {
-                if (mApplication != null) {
-                    return;
-                }
-                try {
+            public Application call() throws Exception {
+                if (mApplication == null) {
                     mApplication = makeApplication(false, mPluginManager.getInstrumentation());
-                } catch (Exception e) {
-                    temp[0] = e;
                 }
+                return mApplication;
             }
-        }, true);
-        
-        if (temp[0] != null) {
-            throw temp[0];
+        });
+    }
+
+    /**
+     * Mark the plugin as used now, see {@link PluginEvictor}.
+     */
+    public void touch() {
+        this.mLastAccessTime = SystemClock.uptimeMillis();
+    }
+
+    public long getLastAccessTime() {
+        return this.mLastAccessTime;
+    }
+
+    /**
+     * Drop the soft caches of the plugin: the inflated layouts, and the drawables, colors and animators
+     * its resources cached for every theme. They are loaded again on demand.
+     * The plugin's Application is not registered to the system, so it's told here to drop its own caches as well.
+     */
+    public void onTrimMemory(int level) {
+        Reflector.QuietReflector.with(this.mResources).method("flushLayoutCache").call();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Object impl = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Reflector.QuietReflector.with(this.mResources).field("mResourcesImpl").get() : this.mResources;
+            if (impl != null) {
+                for (String name : RESOURCES_CACHES) {
+                    Object cache = Reflector.QuietReflector.with(impl).field(name).get();
+                    if (cache != null) {
+                        // A change of every config invalidates all the entries.
+                        Reflector.QuietReflector.with(cache).method("onConfigurationChange", int.class).call(0xffffffff);
+                    }
+                }
+            }
+        }
+        if (this.mApplication != null) {
+            try {
+                this.mApplication.onTrimMemory(level);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+            }
+        }
+    }
+
+    /**
+     * Release what the plugin holds in the host: the registered receivers, the running activities,
+     * the dex elements combined into the host class loader and the asset path.
+     * It's called on ui thread by {@link PluginManager#unloadPlugin(String)}.
+     */
+    public void release() {
+        for (BroadcastReceiver receiver : this.mReceivers) {
+            try {
+                this.mHostContext.unregisterReceiver(receiver);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+            }
+        }
+        this.mReceivers.clear();
+
+        for (WeakReference<Activity> ref : this.mPluginManager.getInstrumentation().getActivities()) {
+            Activity activity = ref.get();
+            if (activity == null || activity.isFinishing() || activity.getIntent() == null) {
+                continue;
+            }
+            ComponentName component = activity.getIntent().getComponent();
+            if (component != null && getPackageName().equals(component.getPackageName())) {
+                activity.finish();
+            }
+        }
+
+        if (Constants.COMBINE_CLASSLOADER) {
+            try {
+                DexUtil.removeDex(this.mClassLoader, this.mHostContext.getClassLoader());
+            } catch (Exception e) {
+                Log.w(TAG, e);
+            }
+        }
+
+        if (Constants.COMBINE_RESOURCES) {
+            ResourcesManager.removeResources(this.mHostContext, this.mLocation);
         }
     }
 
@@ -20,6 +20,7 @@ import android.annotation.TargetApi;
 import android.content.ContentResolverWrapper;
 import android.content.Context;
 import android.content.IContentProvider;
+import android.content.pm.ProviderInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -42,16 +43,18 @@ public class PluginContentResolver extends ContentResolverWrapper {
     
     @Override
     protected IContentProvider acquireProvider(Context context, String auth) {
-        if (mPluginManager.resolveContentProvider(auth, 0) != null) {
-            return mPluginManager.getIContentProvider();
+        ProviderInfo providerInfo = mPluginManager.resolveContentProvider(auth, 0);
+        if (providerInfo != null) {
+            return mPluginManager.getIContentProvider(providerInfo);
         }
         return super.acquireProvider(context, auth);
     }
 
     @Override
     protected IContentProvider acquireExistingProvider(Context context, String auth) {
-        if (mPluginManager.resolveContentProvider(auth, 0) != null) {
-            return mPluginManager.getIContentProvider();
+        ProviderInfo providerInfo = mPluginManager.resolveContentProvider(auth, 0);
+        if (providerInfo != null) {
+            return mPluginManager.getIContentProvider(providerInfo);
         }
         return super.acquireExistingProvider(context, auth);
     }
@@ -59,8 +62,9 @@ public class PluginContentResolver extends ContentResolverWrapper {
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     protected IContentProvider acquireUnstableProvider(Context context, String auth) {
-        if (mPluginManager.resolveContentProvider(auth, 0) != null) {
-            return mPluginManager.getIContentProvider();
+        ProviderInfo providerInfo = mPluginManager.resolveContentProvider(auth, 0);
+        if (providerInfo != null) {
+            return mPluginManager.getIContentProvider(providerInfo);
         }
         return super.acquireUnstableProvider(context, auth);
     }
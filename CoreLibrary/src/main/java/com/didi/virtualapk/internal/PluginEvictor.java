@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.internal;
+
+import android.content.ComponentCallbacks2;
+import android.content.pm.ProviderInfo;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import com.didi.virtualapk.PluginManager;
+import com.didi.virtualapk.internal.utils.PluginUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Release the memory of plugins when the system asks the app to trim memory.
+ * Every loaded plugin drops its soft caches first, see {@link LoadedPlugin#onTrimMemory(int)}.
+ * Then the idle plugins selected by the {@link Policy} are unloaded, which is disabled unless the host
+ * sets a policy. A plugin is idle if it's not pinned and it has no live activity, service or in-process provider.
+ */
+public class PluginEvictor implements ComponentCallbacks2 {
+
+    public static final String TAG = Constants.TAG_PREFIX + "PluginEvictor";
+
+    protected final PluginManager mPluginManager;
+    private final Set<String> mPinnedPlugins = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile Policy mPolicy; // null: plugins are never unloaded
+
+    public PluginEvictor(PluginManager pluginManager) {
+        mPluginManager = pluginManager;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        List<LoadedPlugin> plugins = mPluginManager.getAllLoadedPlugins();
+        for (LoadedPlugin plugin : plugins) {
+            plugin.onTrimMemory(level);
+        }
+
+        Policy policy = mPolicy;
+        if (policy == null) {
+            return;
+        }
+
+        List<LoadedPlugin> idlePlugins = new ArrayList<>();
+        for (LoadedPlugin plugin : plugins) {
+            if (isIdle(plugin)) {
+                idlePlugins.add(plugin);
+            }
+        }
+        Collections.sort(idlePlugins, new Comparator<LoadedPlugin>() {
+            @Override
+            public int compare(LoadedPlugin lhs, LoadedPlugin rhs) {
+                long l = lhs.getLastAccessTime();
+                long r = rhs.getLastAccessTime();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        List<LoadedPlugin> evicted = policy.selectPluginsToEvict(level, idlePlugins);
+        if (evicted == null) {
+            return;
+        }
+        for (LoadedPlugin plugin : evicted) {
+            Log.i(TAG, "Evict plugin " + plugin.getPackageName() + " on trim level " + level);
+            mPluginManager.unloadPlugin(plugin.getPackageName());
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Keep the plugin loaded whatever the memory pressure is, e.g. the host holds the objects of it.
+     */
+    public void pin(String packageName) {
+        mPinnedPlugins.add(packageName);
+    }
+
+    public void unpin(String packageName) {
+        mPinnedPlugins.remove(packageName);
+    }
+
+    public boolean isPinned(String packageName) {
+        return mPinnedPlugins.contains(packageName);
+    }
+
+    /**
+     * Enable unloading the idle plugins under memory pressure, e.g. by {@link LruPolicy}.
+     * Nothing loads an unloaded plugin again, the host should load it before starting its components,
+     * and pin the plugins whose classes or objects it keeps.
+     * @param policy null to disable
+     */
+    public void setPolicy(Policy policy) {
+        mPolicy = policy;
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    public boolean isIdle(LoadedPlugin plugin) {
+        String packageName = plugin.getPackageName();
+        if (isPinned(packageName)) {
+            return false;
+        }
+
+        PluginStats stats = plugin.getStats();
+        if (stats.getServiceCount() > 0 || stats.getActivityCount() > 0) {
+            return false;
+        }
+
+        ProviderInfo[] providers = plugin.getPackageInfo().providers;
+        if (providers != null) {
+            for (ProviderInfo providerInfo : providers) {
+                for (String authority : PluginUtil.getAuthorities(providerInfo)) {
+                    if (mPluginManager.hasLocalProvider(authority)) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Decide which idle plugins are unloaded.
+     */
+    public interface Policy {
+        /**
+         * @param level the level of {@link ComponentCallbacks2#onTrimMemory(int)}
+         * @param idlePlugins the idle plugins, the least recently used first
+         * @return the plugins to unload
+         */
+        List<LoadedPlugin> selectPluginsToEvict(int level, List<LoadedPlugin> idlePlugins);
+    }
+
+    /**
+     * The least recently used plugin is unloaded when the app is running critically low or is in the middle
+     * of the LRU list, all the idle plugins are unloaded when the app is the next to be killed.
+     */
+    public static class LruPolicy implements Policy {
+        @Override
+        public List<LoadedPlugin> selectPluginsToEvict(int level, List<LoadedPlugin> idlePlugins) {
+            if (idlePlugins.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (level >= TRIM_MEMORY_COMPLETE) {
+                return idlePlugins;
+            }
+            if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                return idlePlugins.subList(0, 1);
+            }
+            return Collections.emptyList();
+        }
+    }
+
+}
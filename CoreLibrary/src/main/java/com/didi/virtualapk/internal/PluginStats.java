@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.internal;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.os.Debug;
+
+import com.didi.virtualapk.utils.ApkArchive;
+import com.didi.virtualapk.utils.TraceUtil;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+
+/**
+ * Load cost and memory accounting of a plugin, see {@link LoadedPlugin#getStats()}.
+ * The load phases and sizes are recorded once while the plugin is loaded,
+ * the live components are counted when they are asked for.
+ */
+public class PluginStats {
+
+    public static final String TAG = Constants.TAG_PREFIX + "PluginStats";
+
+    public static final int PHASE_PARSE = 0;
+    public static final int PHASE_RESOURCES = 1;
+    public static final int PHASE_CLASSLOADER = 2;
+    public static final int PHASE_NATIVE_LIB = 3;
+    public static final int PHASE_RECEIVERS = 4;
+    public static final int PHASE_APPLICATION = 5;
+
+    private static final String[] PHASE_NAMES = {
+        "parse", "resources", "classloader", "nativeLib", "receivers", "application",
+    };
+    private static final String[] PHASE_SECTIONS = new String[PHASE_NAMES.length];
+
+    static {
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            PHASE_SECTIONS[i] = "VA.load." + PHASE_NAMES[i];
+        }
+    }
+
+    private final LoadedPlugin mPlugin;
+    private final long[] mPhaseNanos = new long[PHASE_NAMES.length];
+    private long mApkSize;
+    private long mNativeLibSize;
+    private int mDexCount;
+    private long mJavaHeapAtStart;
+    private long mNativeHeapAtStart;
+    private long mHeapDelta;
+
+    PluginStats(LoadedPlugin plugin) {
+        mPlugin = plugin;
+    }
+
+    /**
+     * Record the sizes read from the apk, the archive is shared by the load stages.
+     */
+    void onLoadStarted(ApkArchive archive) {
+        mApkSize = archive.size();
+        int dexCount = 0;
+        for (ApkArchive.Entry entry : archive.getEntries()) {
+            String name = entry.getName();
+            if (name.startsWith("classes") && name.endsWith(".dex") && name.indexOf('/') < 0) {
+                dexCount++;
+            }
+        }
+        mDexCount = dexCount;
+        mJavaHeapAtStart = getJavaHeap();
+        mNativeHeapAtStart = Debug.getNativeHeapAllocatedSize();
+    }
+
+    /**
+     * The heap growth while loading is taken as the heap retained by the plugin. It's approximate,
+     * the allocations of other threads in the meantime are counted as well.
+     */
+    void onLoadFinished() {
+        long delta = getJavaHeap() - mJavaHeapAtStart + Debug.getNativeHeapAllocatedSize() - mNativeHeapAtStart;
+        mHeapDelta = Math.max(0, delta);
+    }
+
+    /**
+     * Begin the trace section of the phase, see {@link TraceUtil}
+     *
+     * @param phase one of PHASE_*
+     * @return start time of the phase by {@link System#nanoTime()}
+     */
+    long beginPhase(int phase) {
+        TraceUtil.beginSection(PHASE_SECTIONS[phase]);
+        return System.nanoTime();
+    }
+
+    /**
+     * @param phase one of PHASE_*
+     * @param startNanos the value returned by {@link #beginPhase(int)}
+     */
+    void endPhase(int phase, long startNanos) {
+        mPhaseNanos[phase] = System.nanoTime() - startNanos;
+        TraceUtil.endSection();
+    }
+
+    void setNativeLibSize(long size) {
+        mNativeLibSize = size;
+    }
+
+    public long getPhaseMillis(int phase) {
+        return mPhaseNanos[phase] / 1000000;
+    }
+
+    public long getLoadMillis() {
+        long total = 0;
+        for (long nanos : mPhaseNanos) {
+            total += nanos;
+        }
+        return total / 1000000;
+    }
+
+    public long getApkSize() {
+        return mApkSize;
+    }
+
+    /**
+     * @return size of the native libraries of the chosen cpu arch
+     */
+    public long getNativeLibSize() {
+        return mNativeLibSize;
+    }
+
+    /**
+     * @return count of the classes*.dex in the apk
+     */
+    public int getDexCount() {
+        return mDexCount;
+    }
+
+    /**
+     * @return count of the activities of the plugin which are not finishing
+     */
+    public int getActivityCount() {
+        int count = 0;
+        String packageName = mPlugin.getPackageName();
+        for (WeakReference<Activity> ref : mPlugin.getPluginManager().getInstrumentation().getActivities()) {
+            Activity activity = ref.get();
+            if (activity == null || activity.isFinishing() || activity.getIntent() == null) {
+                continue;
+            }
+            ComponentName component = activity.getIntent().getComponent();
+            if (component != null && packageName.equals(component.getPackageName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return count of the services of the plugin which are running or bound
+     */
+    public int getServiceCount() {
+        return mPlugin.getPluginManager().getComponentsHandler().getServiceCount(mPlugin.getPackageName());
+    }
+
+    /**
+     * @return approximate bytes of java and native heap retained by loading the plugin
+     */
+    public long getHeapEstimate() {
+        return mHeapDelta;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println(mPlugin.getPackageName() + ": apk=" + mApkSize / 1024 + "KB, nativeLibs=" + mNativeLibSize / 1024
+            + "KB, dex=" + getDexCount() + ", activities=" + getActivityCount() + ", services=" + getServiceCount()
+            + ", heap~" + mHeapDelta / 1024 + "KB");
+        StringBuilder phases = new StringBuilder();
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            phases.append(i == 0 ? "" : ", ").append(PHASE_NAMES[i]).append('=').append(getPhaseMillis(i)).append("ms");
+        }
+        writer.println("  load=" + getLoadMillis() + "ms [" + phases + "]");
+    }
+
+    private static long getJavaHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
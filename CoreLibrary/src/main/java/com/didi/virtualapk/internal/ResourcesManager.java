@@ -37,6 +37,7 @@ import com.didi.virtualapk.utils.Reflector;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -190,6 +191,27 @@ class ResourcesManager {
         return newResources;
     }
     
+    /**
+     * Remove the apk from the split dirs of the host on N and above, so that the resources created
+     * from now on don't load it. The existing resources keep the asset path until they are recreated,
+     * and below N the combined AssetManager has no way to drop it.
+     */
+    public static synchronized void removeResources(Context hostContext, String apk) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        try {
+            ApplicationInfo info = hostContext.getApplicationInfo();
+            info.splitSourceDirs = remove(info.splitSourceDirs, apk);
+            LoadedApk loadedApk = Reflector.with(hostContext).field("mPackageInfo").get();
+            Reflector rLoadedApk = Reflector.with(loadedApk).field("mSplitResDirs");
+            String[] splitResDirs = rLoadedApk.get();
+            rLoadedApk.set(remove(splitResDirs, apk));
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        }
+    }
+
     private static String[] append(String[] paths, String newPath) {
         if (contains(paths, newPath)) {
             return paths;
@@ -204,6 +226,20 @@ class ResourcesManager {
         return newPaths;
     }
     
+    private static String[] remove(String[] paths, String path) {
+        if (!contains(paths, path)) {
+            return paths;
+        }
+
+        List<String> newPaths = new ArrayList<>(paths.length);
+        for (String p : paths) {
+            if (!Objects.equals(p, path)) {
+                newPaths.add(p);
+            }
+        }
+        return newPaths.isEmpty() ? null : newPaths.toArray(new String[newPaths.size()]);
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
     private static boolean contains(String[] array, String value) {
         if (array == null) {
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.internal;
+
+import android.app.ActivityThread;
+import android.app.Application;
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.IBinder;
+import android.util.Log;
+
+import com.didi.virtualapk.PluginManager;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Create and attach the plugin services, the reflected members are resolved once and cached.
+ */
+public class ServiceFactory {
+
+    public static final String TAG = Constants.TAG_PREFIX + "ServiceFactory";
+
+    // Service.attach has the same signature for the whole process, it only depends on the API level.
+    private static volatile Method sAttachMethod;
+
+    protected final PluginManager mPluginManager;
+    protected final ConcurrentHashMap<ComponentName, Constructor<?>> mConstructors = new ConcurrentHashMap<>();
+    protected final ConcurrentHashMap<ComponentName, Metrics> mMetrics = new ConcurrentHashMap<>();
+
+    public ServiceFactory(PluginManager pluginManager) {
+        mPluginManager = pluginManager;
+    }
+
+    /**
+     * Instantiate the plugin service, then attach it to the plugin and call its onCreate.
+     * Must be called on the main thread.
+     */
+    public Service newService(LoadedPlugin plugin, ComponentName component) throws Exception {
+        final long startTime = System.nanoTime();
+        Metrics metrics = getOrCreateMetrics(component);
+        try {
+            Service service = (Service) getConstructor(plugin, component).newInstance();
+
+            ActivityThread mainThread = ActivityThread.currentActivityThread();
+            IBinder token = mainThread.getApplicationThread().asBinder();
+            Application app = plugin.getApplication();
+            getAttachMethod().invoke(service, plugin.getPluginContext(), mainThread, component.getClassName(), token, app, mPluginManager.getActivityManager());
+            service.onCreate();
+
+            long cost = System.nanoTime() - startTime;
+            metrics.onCreated(cost);
+            Log.d(TAG, "newService " + component.getClassName() + " +" + cost / 1000000 + "ms");
+            return service;
+
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            metrics.onFailed(cause);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (Exception e) {
+            metrics.onFailed(e);
+            throw e;
+        }
+    }
+
+    protected Constructor<?> getConstructor(LoadedPlugin plugin, ComponentName component) throws Exception {
+        Constructor<?> constructor = mConstructors.get(component);
+        if (constructor == null) {
+            constructor = plugin.getClassLoader().loadClass(component.getClassName()).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            mConstructors.put(component, constructor);
+        }
+        return constructor;
+    }
+
+    protected static Method getAttachMethod() throws NoSuchMethodException {
+        Method attach = sAttachMethod;
+        if (attach == null) {
+            attach = Service.class.getMethod("attach", Context.class, ActivityThread.class, String.class, IBinder.class, Application.class, Object.class);
+            sAttachMethod = attach;
+        }
+        return attach;
+    }
+
+    private Metrics getOrCreateMetrics(ComponentName component) {
+        Metrics metrics = mMetrics.get(component);
+        if (metrics == null) {
+            metrics = new Metrics();
+            Metrics old = mMetrics.putIfAbsent(component, metrics);
+            if (old != null) {
+                metrics = old;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Drop the cached constructors and metrics of the plugin's services.
+     */
+    public void forget(String packageName) {
+        for (ComponentName component : mConstructors.keySet()) {
+            if (component.getPackageName().equals(packageName)) {
+                mConstructors.remove(component);
+            }
+        }
+        for (ComponentName component : mMetrics.keySet()) {
+            if (component.getPackageName().equals(packageName)) {
+                mMetrics.remove(component);
+            }
+        }
+    }
+
+    public Metrics getMetrics(ComponentName component) {
+        return mMetrics.get(component);
+    }
+
+    public Map<ComponentName, Metrics> getAllMetrics() {
+        return new HashMap<>(mMetrics);
+    }
+
+    /**
+     * Creation cost of a plugin service, the first creation includes the class loading.
+     */
+    public static class Metrics {
+        private int mCreatedCount;
+        private int mFailedCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private Throwable mLastFailure;
+
+        synchronized void onCreated(long nanos) {
+            mCreatedCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        synchronized void onFailed(Throwable t) {
+            mFailedCount++;
+            mLastFailure = t;
+        }
+
+        public synchronized int getCreatedCount() {
+            return mCreatedCount;
+        }
+
+        public synchronized int getFailedCount() {
+            return mFailedCount;
+        }
+
+        public synchronized long getAverageMillis() {
+            return mCreatedCount == 0 ? 0 : mTotalNanos / mCreatedCount / 1000000;
+        }
+
+        public synchronized long getMaxMillis() {
+            return mMaxNanos / 1000000;
+        }
+
+        public synchronized Throwable getLastFailure() {
+            return mLastFailure;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "created=" + mCreatedCount + ", failed=" + mFailedCount
+                + ", avg=" + getAverageMillis() + "ms, max=" + getMaxMillis() + "ms";
+        }
+    }
+
+}
@@ -92,4 +92,8 @@ class StubActivityInfo {
         return stubActivity;
     }
 
+    public void forgetStubActivity(String className) {
+        mCachedStubActivity.remove(className);
+    }
+
 }
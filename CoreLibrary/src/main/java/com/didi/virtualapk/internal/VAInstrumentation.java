@@ -39,6 +39,7 @@ import com.didi.virtualapk.PluginManager;
 import com.didi.virtualapk.delegate.StubActivity;
 import com.didi.virtualapk.internal.utils.PluginUtil;
 import com.didi.virtualapk.utils.Reflector;
+import com.didi.virtualapk.utils.TraceUtil;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -65,84 +66,112 @@ public class VAInstrumentation extends Instrumentation implements Handler.Callba
 
     @Override
     public ActivityResult execStartActivity(Context who, IBinder contextThread, IBinder token, Activity target, Intent intent, int requestCode) {
-        injectIntent(intent);
-        return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode);
+        TraceUtil.beginSection("VA.execStartActivity");
+        try {
+            injectIntent(intent);
+            return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode);
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public ActivityResult execStartActivity(Context who, IBinder contextThread, IBinder token, Activity target, Intent intent, int requestCode, Bundle options) {
-        injectIntent(intent);
-        return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode, options);
+        TraceUtil.beginSection("VA.execStartActivity");
+        try {
+            injectIntent(intent);
+            return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode, options);
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public ActivityResult execStartActivity(Context who, IBinder contextThread, IBinder token, Fragment target, Intent intent, int requestCode, Bundle options) {
-        injectIntent(intent);
-        return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode, options);
+        TraceUtil.beginSection("VA.execStartActivity");
+        try {
+            injectIntent(intent);
+            return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode, options);
+        } finally {
+            TraceUtil.endSection();
+        }
     }
 
     @Override
     public ActivityResult execStartActivity(Context who, IBinder contextThread, IBinder token, String target, Intent intent, int requestCode, Bundle options) {
-        injectIntent(intent);
-        return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode, options);
+        TraceUtil.beginSection("VA.execStartActivity");
+        try {
+            injectIntent(intent);
+            return mBase.execStartActivity(who, contextThread, token, target, intent, requestCode, options);
+        } finally {
+            TraceUtil.endSection();
+        }
     }
     
     protected void injectIntent(Intent intent) {
+        long startTime = System.nanoTime();
         mPluginManager.getComponentsHandler().transformIntentToExplicitAsNeeded(intent);
         // null component is an implicitly intent
         if (intent.getComponent() != null) {
             Log.i(TAG, String.format("execStartActivity[%s : %s]", intent.getComponent().getPackageName(), intent.getComponent().getClassName()));
             // resolve intent with Stub Activity if needed
             this.mPluginManager.getComponentsHandler().markIntentIfNeeded(intent);
+            this.mPluginManager.getLaunchTracker().onLaunchStarted(intent, startTime);
         }
     }
 
     @Override
     public Activity newActivity(ClassLoader cl, String className, Intent intent) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+        TraceUtil.beginSection("VA.newActivity", className);
         try {
-            cl.loadClass(className);
-            Log.i(TAG, String.format("newActivity[%s]", className));
+            try {
+                cl.loadClass(className);
+                Log.i(TAG, String.format("newActivity[%s]", className));
             
-        } catch (ClassNotFoundException e) {
-            ComponentName component = PluginUtil.getComponent(intent);
+            } catch (ClassNotFoundException e) {
+                ComponentName component = PluginUtil.getComponent(intent);
             
-            if (component == null) {
-                return newActivity(mBase.newActivity(cl, className, intent));
-            }
+                if (component == null) {
+                    return newActivity(mBase.newActivity(cl, className, intent));
+                }
     
-            String targetClassName = component.getClassName();
-            Log.i(TAG, String.format("newActivity[%s : %s/%s]", className, component.getPackageName(), targetClassName));
+                String targetClassName = component.getClassName();
+                Log.i(TAG, String.format("newActivity[%s : %s/%s]", className, component.getPackageName(), targetClassName));
     
-            LoadedPlugin plugin = this.mPluginManager.getLoadedPlugin(component);
+                LoadedPlugin plugin = this.mPluginManager.getLoadedPlugin(component);
     
-            if (plugin == null) {
-                // Not found then goto stub activity.
-                boolean debuggable = false;
-                try {
-                    Context context = this.mPluginManager.getHostContext();
-                    debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
-                } catch (Throwable ex) {
+                if (plugin == null) {
+                    // Not found then goto stub activity.
+                    boolean debuggable = false;
+                    try {
+                        Context context = this.mPluginManager.getHostContext();
+                        debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+                    } catch (Throwable ex) {
         
-                }
+                    }
     
-                if (debuggable) {
-                    throw new ActivityNotFoundException("error intent: " + intent.toURI());
-                }
+                    if (debuggable) {
+                        throw new ActivityNotFoundException("error intent: " + intent.toURI());
+                    }
                 
-                Log.i(TAG, "Not found. starting the stub activity: " + StubActivity.class);
-                return newActivity(mBase.newActivity(cl, StubActivity.class.getName(), intent));
-            }
+                    Log.i(TAG, "Not found. starting the stub activity: " + StubActivity.class);
+                    return newActivity(mBase.newActivity(cl, StubActivity.class.getName(), intent));
+                }
             
-            Activity activity = mBase.newActivity(plugin.getClassLoader(), targetClassName, intent);
-            activity.setIntent(intent);
+                Activity activity = mBase.newActivity(plugin.getClassLoader(), targetClassName, intent);
+                activity.setIntent(intent);
+                mPluginManager.getLaunchTracker().onStage(intent, LaunchTracker.STAGE_NEW_ACTIVITY);
     
-            // for 4.1+
-            Reflector.QuietReflector.with(activity).field("mResources").set(plugin.getResources());
+                // for 4.1+
+                Reflector.QuietReflector.with(activity).field("mResources").set(plugin.getResources());
     
-            return newActivity(activity);
-        }
+                return newActivity(activity);
+            }
 
-        return newActivity(mBase.newActivity(cl, className, intent));
+            return newActivity(mBase.newActivity(cl, className, intent));
+        } finally {
+            TraceUtil.endSection();
+        }
     }
     
     @Override
@@ -152,17 +181,37 @@ public class VAInstrumentation extends Instrumentation implements Handler.Callba
 
     @Override
     public void callActivityOnCreate(Activity activity, Bundle icicle) {
-        injectActivity(activity);
-        mBase.callActivityOnCreate(activity, icicle);
+        TraceUtil.beginSection("VA.callActivityOnCreate", activity.getClass().getName());
+        try {
+            injectActivity(activity);
+            mPluginManager.getLaunchTracker().onStage(activity, LaunchTracker.STAGE_INJECT);
+            mBase.callActivityOnCreate(activity, icicle);
+            mPluginManager.getLaunchTracker().onStage(activity, LaunchTracker.STAGE_CREATE);
+        } finally {
+            TraceUtil.endSection();
+        }
     }
     
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void callActivityOnCreate(Activity activity, Bundle icicle, PersistableBundle persistentState) {
-        injectActivity(activity);
-        mBase.callActivityOnCreate(activity, icicle, persistentState);
+        TraceUtil.beginSection("VA.callActivityOnCreate", activity.getClass().getName());
+        try {
+            injectActivity(activity);
+            mPluginManager.getLaunchTracker().onStage(activity, LaunchTracker.STAGE_INJECT);
+            mBase.callActivityOnCreate(activity, icicle, persistentState);
+            mPluginManager.getLaunchTracker().onStage(activity, LaunchTracker.STAGE_CREATE);
+        } finally {
+            TraceUtil.endSection();
+        }
     }
     
+    @Override
+    public void callActivityOnResume(Activity activity) {
+        mBase.callActivityOnResume(activity);
+        mPluginManager.getLaunchTracker().onStage(activity, LaunchTracker.STAGE_RESUME);
+    }
+
     protected void injectActivity(Activity activity) {
         final Intent intent = activity.getIntent();
         if (PluginUtil.isIntentFromPlugin(intent)) {
@@ -204,6 +253,7 @@ public class VAInstrumentation extends Instrumentation implements Handler.Callba
                 ActivityInfo activityInfo = reflector.field("activityInfo").get();
 
                 if (PluginUtil.isIntentFromPlugin(intent)) {
+                    mPluginManager.getLaunchTracker().onStage(intent, LaunchTracker.STAGE_LAUNCH_MESSAGE);
                     int theme = PluginUtil.getTheme(mPluginManager.getHostContext(), intent);
                     if (theme != 0) {
                         Log.i(TAG, "resolve theme, current theme:" + activityInfo.theme + "  after :0x" + Integer.toHexString(theme));
@@ -26,14 +26,18 @@ import com.didi.virtualapk.utils.Reflector;
 import java.io.File;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import dalvik.system.DexClassLoader;
 
 public class DexUtil {
     private static boolean sHasInsertedNativeLibrary = false;
 
-    public static void insertDex(DexClassLoader dexClassLoader, ClassLoader baseClassLoader, File nativeLibsDir) throws Exception {
+    public static synchronized void insertDex(DexClassLoader dexClassLoader, ClassLoader baseClassLoader, File nativeLibsDir) throws Exception {
         Object baseDexElements = getDexElements(getPathList(baseClassLoader));
         Object newDexElements = getDexElements(getPathList(dexClassLoader));
         Object allDexElements = combineArray(baseDexElements, newDexElements);
@@ -43,6 +47,17 @@ public class DexUtil {
         insertNativeLibrary(dexClassLoader, baseClassLoader, nativeLibsDir);
     }
 
+    /**
+     * Remove the dex elements of the plugin from the host class loader, the reverse of {@link #insertDex}.
+     * The classes already loaded through them stay alive until they are unreachable.
+     */
+    public static synchronized void removeDex(ClassLoader dexClassLoader, ClassLoader baseClassLoader) throws Exception {
+        Object pathList = getPathList(baseClassLoader);
+        Object baseDexElements = getDexElements(pathList);
+        Object pluginDexElements = getDexElements(getPathList(dexClassLoader));
+        Reflector.with(pathList).field("dexElements").set(removeArray(baseDexElements, pluginDexElements));
+    }
+
     private static Object getDexElements(Object pathList) throws Exception {
         return Reflector.with(pathList).field("dexElements").get();
     }
@@ -61,6 +76,25 @@ public class DexUtil {
         return result;
     }
 
+    private static Object removeArray(Object array, Object removedArray) {
+        Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (int i = 0; i < Array.getLength(removedArray); i++) {
+            removed.add(Array.get(removedArray, i));
+        }
+        List<Object> remaining = new ArrayList<>();
+        for (int i = 0; i < Array.getLength(array); i++) {
+            Object element = Array.get(array, i);
+            if (!removed.contains(element)) {
+                remaining.add(element);
+            }
+        }
+        Object result = Array.newInstance(array.getClass().getComponentType(), remaining.size());
+        for (int i = 0; i < remaining.size(); i++) {
+            Array.set(result, i, remaining.get(i));
+        }
+        return result;
+    }
+
     private static synchronized void insertNativeLibrary(DexClassLoader dexClassLoader, ClassLoader baseClassLoader, File nativeLibsDir) throws Exception {
         if (sHasInsertedNativeLibrary) {
             return;
@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
+import android.content.pm.ProviderInfo;
 import android.content.pm.ServiceInfo;
 import android.content.res.Resources;
 import android.os.Build;
@@ -34,6 +35,7 @@ import android.util.Log;
 import com.didi.virtualapk.PluginManager;
 import com.didi.virtualapk.internal.Constants;
 import com.didi.virtualapk.internal.LoadedPlugin;
+import com.didi.virtualapk.utils.ApkArchive;
 import com.didi.virtualapk.utils.Reflector;
 
 import java.io.BufferedInputStream;
@@ -43,9 +45,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by renyugang on 16/8/15.
@@ -162,6 +167,17 @@ public class PluginUtil {
         return TextUtils.isEmpty(serviceInfo.processName) || serviceInfo.applicationInfo.packageName.equals(serviceInfo.processName);
     }
 
+    public static final boolean isLocalProvider(final ProviderInfo providerInfo) {
+        return TextUtils.isEmpty(providerInfo.processName) || providerInfo.applicationInfo.packageName.equals(providerInfo.processName);
+    }
+
+    /**
+     * A provider may declare several authorities separated by ';', as the system does.
+     */
+    public static String[] getAuthorities(final ProviderInfo providerInfo) {
+        return providerInfo.authority.split(";");
+    }
+
     public static boolean isVivo(Resources resources) {
         return resources.getClass().getName().equals("android.content.res.VivoResources");
     }
@@ -186,65 +202,78 @@ public class PluginUtil {
         }
     }
     
-    public static void copyNativeLib(File apk, Context context, PackageInfo packageInfo, File nativeLibDir) throws Exception {
+    public static long copyNativeLib(File apk, Context context, PackageInfo packageInfo, File nativeLibDir) throws Exception {
+        ApkArchive archive = ApkArchive.open(apk);
+        try {
+            return copyNativeLib(archive, context, packageInfo, nativeLibDir);
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Copy the native libraries of the most preferred cpu arch which the plugin supports.
+     * The entries are walked once, the libraries are grouped by cpu arch.
+     * @return total size of the native libraries of the chosen cpu arch
+     */
+    public static long copyNativeLib(ApkArchive archive, Context context, PackageInfo packageInfo, File nativeLibDir) throws Exception {
         long startTime = System.currentTimeMillis();
-        ZipFile zipfile = new ZipFile(apk.getAbsolutePath());
-    
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                for (String cpuArch : Build.SUPPORTED_ABIS) {
-                    if (findAndCopyNativeLib(zipfile, context, cpuArch, packageInfo, nativeLibDir)) {
-                        return;
-                    }
+            Map<String, List<ApkArchive.Entry>> libs = new HashMap<>();
+            for (ApkArchive.Entry entry : archive.getEntries()) {
+                String entryName = entry.getName();
+                if (!entryName.startsWith("lib/") || !entryName.endsWith(".so")) {
+                    continue;
                 }
-                
+                int end = entryName.indexOf('/', 4);
+                if (end < 0) {
+                    continue;
+                }
+                String cpuArch = entryName.substring(4, end);
+                List<ApkArchive.Entry> entries = libs.get(cpuArch);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    libs.put(cpuArch, entries);
+                }
+                entries.add(entry);
+            }
+
+            if (libs.isEmpty()) {
+                Log.d(TAG, "Fast skip all!");
+                return 0;
+            }
+
+            String[] cpuArchs;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                cpuArchs = Build.SUPPORTED_ABIS;
             } else {
-                if (findAndCopyNativeLib(zipfile, context, Build.CPU_ABI, packageInfo, nativeLibDir)) {
-                    return;
+                cpuArchs = new String[] {Build.CPU_ABI};
+            }
+            for (String cpuArch : cpuArchs) {
+                List<ApkArchive.Entry> entries = libs.get(cpuArch);
+                if (entries != null) {
+                    return copyNativeLib(archive, context, cpuArch, entries, packageInfo, nativeLibDir);
                 }
             }
-            
-            findAndCopyNativeLib(zipfile, context, "armeabi", packageInfo, nativeLibDir);
-    
+
+            List<ApkArchive.Entry> entries = libs.get("armeabi");
+            if (entries != null) {
+                return copyNativeLib(archive, context, "armeabi", entries, packageInfo, nativeLibDir);
+            }
+            return 0;
+
         } finally {
-            zipfile.close();
             Log.d(TAG, "Done! +" + (System.currentTimeMillis() - startTime) + "ms");
         }
     }
-    
-    private static boolean findAndCopyNativeLib(ZipFile zipfile, Context context, String cpuArch, PackageInfo packageInfo, File nativeLibDir) throws Exception {
-        Log.d(TAG, "Try to copy plugin's cup arch: " + cpuArch);
-        boolean findLib = false;
-        boolean findSo = false;
+
+    private static long copyNativeLib(ApkArchive archive, Context context, String cpuArch, List<ApkArchive.Entry> entries, PackageInfo packageInfo, File nativeLibDir) throws Exception {
+        Log.d(TAG, "Found plugin's cup arch dir: " + cpuArch);
         byte buffer[] = null;
-        String libPrefix = "lib/" + cpuArch + "/";
-        ZipEntry entry;
-        Enumeration e = zipfile.entries();
-        
-        while (e.hasMoreElements()) {
-            entry = (ZipEntry) e.nextElement();
+        long totalSize = 0;
+        for (ApkArchive.Entry entry : entries) {
+            totalSize += entry.getSize();
             String entryName = entry.getName();
-            
-            if (entryName.charAt(0) < 'l') {
-                continue;
-            }
-            if (entryName.charAt(0) > 'l') {
-                break;
-            }
-            if (!findLib && !entryName.startsWith("lib/")) {
-                continue;
-            }
-            findLib = true;
-            if (!entryName.endsWith(".so") || !entryName.startsWith(libPrefix)) {
-                continue;
-            }
-    
-            if (buffer == null) {
-                findSo = true;
-                Log.d(TAG, "Found plugin's cup arch dir: " + cpuArch);
-                buffer = new byte[8192];
-            }
-            
             String libName = entryName.substring(entryName.lastIndexOf('/') + 1);
             Log.d(TAG, "verify so " + libName);
             File libFile = new File(nativeLibDir, libName);
@@ -252,24 +281,37 @@ public class PluginUtil {
             if (libFile.exists()) {
                 int VersionCode = Settings.getSoVersion(context, key);
                 if (VersionCode == packageInfo.versionCode) {
-                    Log.d(TAG, "skip existing so : " + entry.getName());
+                    Log.d(TAG, "skip existing so : " + entryName);
                     continue;
                 }
             }
             FileOutputStream fos = new FileOutputStream(libFile);
-            Log.d(TAG, "copy so " + entry.getName() + " of " + cpuArch);
-            copySo(buffer, zipfile.getInputStream(entry), fos);
+            Log.d(TAG, "copy so " + entryName + " of " + cpuArch);
+            if (entry.getMethod() == ApkArchive.Entry.STORED) {
+                // Uncompressed libraries are written from the mapping directly.
+                copySo(archive.getRawData(entry), fos);
+            } else {
+                if (buffer == null) {
+                    buffer = new byte[8192];
+                }
+                copySo(buffer, archive.getInputStream(entry), fos);
+            }
             Settings.setSoVersion(context, key, packageInfo.versionCode);
         }
-        
-        if (!findLib) {
-            Log.d(TAG, "Fast skip all!");
-            return true;
+        return totalSize;
+    }
+
+    private static void copySo(ByteBuffer data, FileOutputStream output) throws IOException {
+        try {
+            FileChannel channel = output.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            output.close();
         }
-        
-        return findSo;
     }
-    
+
     private static void copySo(byte[] buffer, InputStream input, OutputStream output) throws IOException {
         BufferedInputStream bufferedInput = new BufferedInputStream(input);
         BufferedOutputStream bufferedOutput = new BufferedOutputStream(output);
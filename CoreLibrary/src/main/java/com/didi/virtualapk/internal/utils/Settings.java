@@ -25,6 +25,7 @@ import android.content.SharedPreferences;
 public class Settings {
 
     private static final String FILE_NAME = "VirtualAPK_Settings";
+    private static final String VERIFIED_FILE_NAME = "VirtualAPK_Verified";
 
     public static void setSoVersion(Context context, String name, int version) {
         SharedPreferences preferences = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
@@ -38,4 +39,17 @@ public class Settings {
         return preferences.getInt(name, 0);
     }
 
+    /**
+     * Remember the identity of an apk which passed the signature verification.
+     */
+    public static void setVerifiedApk(Context context, String path, String identity) {
+        SharedPreferences preferences = context.getSharedPreferences(VERIFIED_FILE_NAME, Context.MODE_PRIVATE);
+        preferences.edit().putString(path, identity).apply();
+    }
+
+    public static String getVerifiedApk(Context context, String path) {
+        SharedPreferences preferences = context.getSharedPreferences(VERIFIED_FILE_NAME, Context.MODE_PRIVATE);
+        return preferences.getString(path, null);
+    }
+
 }
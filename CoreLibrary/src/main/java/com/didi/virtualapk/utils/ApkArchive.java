@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read only apk mapped into memory. The central directory is read once when it's opened,
+ * the entries are read from the mapping without any further file access.
+ * <p>
+ * It's shared by the stages of loading a plugin, see {@link ApkSignatureVerifier#verify(ApkArchive)}
+ * and {@link com.didi.virtualapk.internal.utils.PluginUtil#copyNativeLib(ApkArchive, android.content.Context, android.content.pm.PackageInfo, File)}.
+ */
+public class ApkArchive implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int EOCD_CD_SIZE_OFFSET = 12;
+    private static final int EOCD_CD_OFFSET_OFFSET = 16;
+    private static final int EOCD_COMMENT_LENGTH_OFFSET = 20;
+
+    private static final int CD_SIGNATURE = 0x02014b50;
+    private static final int CD_HEADER_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    // "APK Sig Block 42" in little endian
+    private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+    private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+    private static final int APK_SIG_BLOCK_MIN_SIZE = 32;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final ByteBuffer mBuffer;
+    private final int mEocdOffset;
+    private final int mCentralDirectoryOffset;
+    private final int mSigningBlockOffset;
+    private final List<Entry> mEntries;
+    private final Map<String, Entry> mEntriesByName;
+
+    private ApkArchive(File file, RandomAccessFile randomAccessFile, ByteBuffer buffer) throws IOException {
+        mFile = file;
+        mRandomAccessFile = randomAccessFile;
+        mBuffer = buffer;
+        mEocdOffset = findEocd(buffer);
+        if (mEocdOffset < 0) {
+            throw new ZipException("End of central directory not found: " + file);
+        }
+
+        long cdOffset = buffer.getInt(mEocdOffset + EOCD_CD_OFFSET_OFFSET) & 0xffffffffL;
+        long cdSize = buffer.getInt(mEocdOffset + EOCD_CD_SIZE_OFFSET) & 0xffffffffL;
+        if (cdOffset + cdSize > mEocdOffset) {
+            throw new ZipException("Malformed central directory, zip64 is not supported: " + file);
+        }
+        mCentralDirectoryOffset = (int) cdOffset;
+        // The signing block must be followed by the central directory immediately.
+        mSigningBlockOffset = cdOffset + cdSize == mEocdOffset ? findSigningBlock(buffer, mCentralDirectoryOffset) : -1;
+
+        mEntries = readCentralDirectory(buffer, mCentralDirectoryOffset, (int) cdSize);
+        mEntriesByName = new HashMap<>(mEntries.size() * 2);
+        for (Entry entry : mEntries) {
+            mEntriesByName.put(entry.mName, entry);
+        }
+    }
+
+    public static ApkArchive open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Apk is too large to be mapped: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            return new ApkArchive(file, randomAccessFile, buffer);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private static int findEocd(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        int minOffset = Math.max(0, size - EOCD_MIN_SIZE - 0xffff);
+        for (int offset = size - EOCD_MIN_SIZE; offset >= minOffset; offset--) {
+            if (buffer.getInt(offset) == EOCD_SIGNATURE
+                && (buffer.getShort(offset + EOCD_COMMENT_LENGTH_OFFSET) & 0xffff) == size - offset - EOCD_MIN_SIZE) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static int findSigningBlock(ByteBuffer buffer, int cdOffset) throws IOException {
+        if (cdOffset < APK_SIG_BLOCK_MIN_SIZE
+            || buffer.getLong(cdOffset - 16) != APK_SIG_BLOCK_MAGIC_LO
+            || buffer.getLong(cdOffset - 8) != APK_SIG_BLOCK_MAGIC_HI) {
+            return -1;
+        }
+        long blockSize = buffer.getLong(cdOffset - 24);
+        long blockOffset = cdOffset - blockSize - 8;
+        if (blockSize < 24 || blockOffset < 0 || buffer.getLong((int) blockOffset) != blockSize) {
+            throw new ZipException("Malformed APK signing block");
+        }
+        return (int) blockOffset;
+    }
+
+    private static List<Entry> readCentralDirectory(ByteBuffer buffer, int offset, int size) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int end = offset + size;
+        while (offset < end) {
+            if (offset + CD_HEADER_SIZE > end || buffer.getInt(offset) != CD_SIGNATURE) {
+                throw new ZipException("Malformed central directory entry at " + offset);
+            }
+            int flags = buffer.getShort(offset + 8) & 0xffff;
+            int method = buffer.getShort(offset + 10) & 0xffff;
+            long crc = buffer.getInt(offset + 16) & 0xffffffffL;
+            long compressedSize = buffer.getInt(offset + 20) & 0xffffffffL;
+            long uncompressedSize = buffer.getInt(offset + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(offset + 28) & 0xffff;
+            int extraLength = buffer.getShort(offset + 30) & 0xffff;
+            int commentLength = buffer.getShort(offset + 32) & 0xffff;
+            long localHeaderOffset = buffer.getInt(offset + 42) & 0xffffffffL;
+            if ((flags & 0x1) != 0) {
+                throw new ZipException("Encrypted entry is not supported");
+            }
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(offset + CD_HEADER_SIZE);
+            nameBuffer.get(name);
+            entries.add(new Entry(new String(name, UTF_8), method, crc, compressedSize, uncompressedSize, localHeaderOffset));
+            offset += CD_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return the entries in the order of the central directory.
+     */
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    public Entry getEntry(String name) {
+        return mEntriesByName.get(name);
+    }
+
+    /**
+     * @return the raw data of the entry, it's compressed if the entry is not stored.
+     */
+    public ByteBuffer getRawData(Entry entry) throws IOException {
+        int offset = (int) entry.mLocalHeaderOffset;
+        if (offset + LOCAL_HEADER_SIZE > mCentralDirectoryOffset || mBuffer.getInt(offset) != LOCAL_SIGNATURE) {
+            throw new ZipException("Malformed local header of " + entry.mName);
+        }
+        int nameLength = mBuffer.getShort(offset + 26) & 0xffff;
+        int extraLength = mBuffer.getShort(offset + 28) & 0xffff;
+        int dataOffset = offset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + entry.mCompressedSize > mCentralDirectoryOffset) {
+            throw new ZipException("Data of " + entry.mName + " out of range");
+        }
+        return slice(dataOffset, (int) entry.mCompressedSize);
+    }
+
+    public InputStream getInputStream(Entry entry) throws IOException {
+        InputStream in = new ByteBufferInputStream(getRawData(entry));
+        switch (entry.mMethod) {
+            case Entry.STORED:
+                return in;
+            case Entry.DEFLATED:
+                final Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(in, inflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            default:
+                throw new ZipException("Unsupported compression method " + entry.mMethod + " of " + entry.mName);
+        }
+    }
+
+    /**
+     * @return the whole apk in little endian.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public ByteBuffer slice(int offset, int length) {
+        ByteBuffer duplicate = mBuffer.duplicate();
+        duplicate.limit(offset + length);
+        duplicate.position(offset);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int size() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * @return offset of the APK signing block, or -1 if it's not signed by v2 or v3.
+     */
+    public int getSigningBlockOffset() {
+        return mSigningBlockOffset;
+    }
+
+    public int getCentralDirectoryOffset() {
+        return mCentralDirectoryOffset;
+    }
+
+    public int getEocdOffset() {
+        return mEocdOffset;
+    }
+
+    /**
+     * Close the file, the mapping is released when it's no longer referenced.
+     */
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    public static class Entry {
+        public static final int STORED = 0;
+        public static final int DEFLATED = 8;
+
+        private final String mName;
+        private final int mMethod;
+        private final long mCrc;
+        private final long mCompressedSize;
+        private final long mSize;
+        private final long mLocalHeaderOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            mName = name;
+            mMethod = method;
+            mCrc = crc;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mLocalHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isDirectory() {
+            return mName.endsWith("/");
+        }
+
+        public int getMethod() {
+            return mMethod;
+        }
+
+        public long getCrc() {
+            return mCrc;
+        }
+
+        public long getCompressedSize() {
+            return mCompressedSize;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.utils;
+
+import android.os.Build;
+import android.util.Log;
+
+import com.didi.virtualapk.internal.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Verify the signature of an apk, APK Signature Scheme v3 and v2 are preferred, v1 (jar signing) is
+ * used only if the apk has no signing block.
+ * <p>
+ * The apk is read through an {@link ApkArchive} mapped into memory, and the 1MB chunk digests
+ * of the contents are computed in parallel on {@link RunUtil#getThreadPool()}.
+ */
+public class ApkSignatureVerifier {
+
+    public static final String TAG = Constants.TAG_PREFIX + "ApkSignatureVerifier";
+
+    public static final int SCHEME_V1 = 1;
+    public static final int SCHEME_V2 = 2;
+    public static final int SCHEME_V3 = 3;
+
+    private static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+    private static final int APK_SIGNATURE_SCHEME_V3_BLOCK_ID = 0xf05368c0;
+
+    private static final int EOCD_CD_OFFSET_OFFSET = 16;
+
+    private static final int SIGNATURE_RSA_PSS_WITH_SHA256 = 0x0101;
+    private static final int SIGNATURE_RSA_PSS_WITH_SHA512 = 0x0102;
+    private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256 = 0x0103;
+    private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA512 = 0x0104;
+    private static final int SIGNATURE_ECDSA_WITH_SHA256 = 0x0201;
+    private static final int SIGNATURE_ECDSA_WITH_SHA512 = 0x0202;
+    private static final int SIGNATURE_DSA_WITH_SHA256 = 0x0301;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Verify the signature of the apk.
+     * @return the scheme and the certificates of the signer, the first one is the signing certificate.
+     * @throws SecurityException if the apk is not signed or the signature doesn't match the contents.
+     */
+    public static Result verify(File apk) throws Exception {
+        ApkArchive archive = ApkArchive.open(apk);
+        try {
+            return verify(archive);
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Same as {@link #verify(File)}, with an archive opened by the caller.
+     */
+    public static Result verify(ApkArchive archive) throws Exception {
+        long start = System.currentTimeMillis();
+        Result result = verifySigningBlock(archive);
+        if (result == null) {
+            result = verifyJarSignature(archive.getFile());
+        }
+        Log.d(TAG, "verify " + archive.getFile().getName() + " v" + result.getScheme() + " +" + (System.currentTimeMillis() - start) + "ms");
+        return result;
+    }
+
+    /**
+     * A fast fingerprint of the apk, it's the SHA-256 of the signing block, the central directory and
+     * the end of central directory. The signing block holds the signed digest of the contents,
+     * and the central directory holds the CRC-32 of every entry.
+     */
+    public static byte[] computeFingerprint(ApkArchive archive) throws Exception {
+        int offset = archive.getSigningBlockOffset() >= 0 ? archive.getSigningBlockOffset() : archive.getCentralDirectoryOffset();
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(archive.slice(offset, archive.size() - offset));
+        return md.digest();
+    }
+
+    /**
+     * @return null if the apk has no v2 or v3 signing block.
+     */
+    private static Result verifySigningBlock(ApkArchive archive) throws Exception {
+        if (archive.getSigningBlockOffset() < 0) {
+            return null;
+        }
+
+        int scheme = SCHEME_V3;
+        ByteBuffer schemeBlock = findSchemeBlock(archive, APK_SIGNATURE_SCHEME_V3_BLOCK_ID);
+        if (schemeBlock == null) {
+            scheme = SCHEME_V2;
+            schemeBlock = findSchemeBlock(archive, APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+        }
+        if (schemeBlock == null) {
+            return null;
+        }
+
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        Map<String, byte[]> expectedDigests = new HashMap<>();
+        X509Certificate[] certificates = null;
+        ByteBuffer signers = getLengthPrefixedSlice(schemeBlock);
+        while (signers.hasRemaining()) {
+            ByteBuffer signer = getLengthPrefixedSlice(signers);
+            X509Certificate[] signerCertificates = verifySigner(signer, scheme == SCHEME_V3, expectedDigests, certificateFactory);
+            if (signerCertificates == null) {
+                // v3 signer targeting other platform versions
+                continue;
+            }
+            if (certificates != null && scheme == SCHEME_V3) {
+                throw new SecurityException("More than one v3 signer for the platform");
+            }
+            if (certificates == null) {
+                certificates = signerCertificates;
+            }
+        }
+        if (certificates == null) {
+            throw new SecurityException("No signer in the v" + scheme + " signing block");
+        }
+
+        for (Map.Entry<String, byte[]> entry : expectedDigests.entrySet()) {
+            byte[] actual = computeContentDigest(archive, entry.getKey());
+            if (!MessageDigest.isEqual(entry.getValue(), actual)) {
+                throw new SecurityException(entry.getKey() + " digest of the contents doesn't match");
+            }
+        }
+
+        return new Result(scheme, certificates);
+    }
+
+    /**
+     * @return the certificates of the signer, or null if it's a v3 signer for other platform versions.
+     */
+    private static X509Certificate[] verifySigner(ByteBuffer signer, boolean v3, Map<String, byte[]> expectedDigests,
+                                                  CertificateFactory certificateFactory) throws Exception {
+        ByteBuffer signedData = getLengthPrefixedSlice(signer);
+        if (v3) {
+            int minSdk = signer.getInt();
+            int maxSdk = signer.getInt();
+            if (Build.VERSION.SDK_INT < minSdk || Build.VERSION.SDK_INT > maxSdk) {
+                return null;
+            }
+        }
+        ByteBuffer signatures = getLengthPrefixedSlice(signer);
+        byte[] publicKeyBytes = readLengthPrefixedBytes(signer);
+
+        int bestAlgorithm = -1;
+        byte[] bestSignature = null;
+        while (signatures.hasRemaining()) {
+            ByteBuffer signature = getLengthPrefixedSlice(signatures);
+            int algorithm = signature.getInt();
+            if (!isSupportedAlgorithm(algorithm)) {
+                continue;
+            }
+            if (bestAlgorithm == -1 || isStrongerAlgorithm(algorithm, bestAlgorithm)) {
+                bestAlgorithm = algorithm;
+                bestSignature = readLengthPrefixedBytes(signature);
+            }
+        }
+        if (bestAlgorithm == -1) {
+            throw new SecurityException("No supported signature");
+        }
+
+        PublicKey publicKey = KeyFactory.getInstance(getKeyAlgorithm(bestAlgorithm))
+            .generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+        Signature verifier = Signature.getInstance(getSignatureAlgorithm(bestAlgorithm));
+        verifier.initVerify(publicKey);
+        if (bestAlgorithm == SIGNATURE_RSA_PSS_WITH_SHA256) {
+            verifier.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+        } else if (bestAlgorithm == SIGNATURE_RSA_PSS_WITH_SHA512) {
+            verifier.setParameter(new PSSParameterSpec("SHA-512", "MGF1", MGF1ParameterSpec.SHA512, 64, 1));
+        }
+        verifier.update(signedData.duplicate());
+        if (!verifier.verify(bestSignature)) {
+            throw new SecurityException("Signature of the signed data doesn't verify");
+        }
+
+        // The signed data is trusted from now on.
+        ByteBuffer digests = getLengthPrefixedSlice(signedData);
+        ByteBuffer encodedCertificates = getLengthPrefixedSlice(signedData);
+        if (v3) {
+            int minSdk = signedData.getInt();
+            int maxSdk = signedData.getInt();
+            if (Build.VERSION.SDK_INT < minSdk || Build.VERSION.SDK_INT > maxSdk) {
+                throw new SecurityException("SDK versions of the signer and its signed data mismatch");
+            }
+        }
+
+        byte[] digest = null;
+        while (digests.hasRemaining()) {
+            ByteBuffer entry = getLengthPrefixedSlice(digests);
+            if (entry.getInt() == bestAlgorithm) {
+                digest = readLengthPrefixedBytes(entry);
+                break;
+            }
+        }
+        if (digest == null) {
+            throw new SecurityException("No digest for the signature algorithm " + bestAlgorithm);
+        }
+        String digestAlgorithm = getDigestAlgorithm(bestAlgorithm);
+        byte[] previous = expectedDigests.put(digestAlgorithm, digest);
+        if (previous != null && !MessageDigest.isEqual(previous, digest)) {
+            throw new SecurityException(digestAlgorithm + " digests of the signers mismatch");
+        }
+
+        List<X509Certificate> certificates = new ArrayList<>();
+        while (encodedCertificates.hasRemaining()) {
+            byte[] encoded = readLengthPrefixedBytes(encodedCertificates);
+            certificates.add((X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(encoded)));
+        }
+        if (certificates.isEmpty()) {
+            throw new SecurityException("No certificate of the signer");
+        }
+        if (!Arrays.equals(publicKeyBytes, certificates.get(0).getPublicKey().getEncoded())) {
+            throw new SecurityException("Public key of the signer mismatches its certificate");
+        }
+
+        return certificates.toArray(new X509Certificate[certificates.size()]);
+    }
+
+    /**
+     * Compute the digest of the contents, the central directory and the end of central directory,
+     * which are split into 1MB chunks and digested in parallel.
+     */
+    private static byte[] computeContentDigest(ApkArchive archive, String digestAlgorithm) throws Exception {
+        // The offset of central directory in EOCD is digested as if there were no signing block.
+        ByteBuffer eocd = ByteBuffer.allocate(archive.size() - archive.getEocdOffset()).order(ByteOrder.LITTLE_ENDIAN);
+        eocd.put(archive.slice(archive.getEocdOffset(), eocd.capacity()));
+        eocd.putInt(EOCD_CD_OFFSET_OFFSET, archive.getSigningBlockOffset());
+        eocd.clear();
+
+        ByteBuffer[] contents = {
+            archive.slice(0, archive.getSigningBlockOffset()),
+            archive.slice(archive.getCentralDirectoryOffset(), archive.getEocdOffset() - archive.getCentralDirectoryOffset()),
+            eocd,
+        };
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        for (ByteBuffer content : contents) {
+            for (int offset = 0; offset < content.capacity(); offset += CHUNK_SIZE) {
+                chunks.add(slice(content, offset, Math.min(CHUNK_SIZE, content.capacity() - offset)));
+            }
+        }
+
+        final String algorithm = digestAlgorithm;
+        final int digestLength = MessageDigest.getInstance(algorithm).getDigestLength();
+        final byte[] chunkDigests = new byte[5 + chunks.size() * digestLength];
+        chunkDigests[0] = 0x5a;
+        putIntLE(chunkDigests, 1, chunks.size());
+
+        int taskCount = Math.max(1, Math.min(chunks.size(), Runtime.getRuntime().availableProcessors()));
+        int chunksPerTask = (chunks.size() + taskCount - 1) / taskCount;
+        List<FutureTask<Void>> tasks = new ArrayList<>(taskCount);
+        for (int from = 0; from < chunks.size(); from += chunksPerTask) {
+            final int start = from;
+            final int end = Math.min(chunks.size(), from + chunksPerTask);
+            tasks.add(new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        MessageDigest md = MessageDigest.getInstance(algorithm);
+                        byte[] prefix = new byte[5];
+                        prefix[0] = (byte) 0xa5;
+                        for (int i = start; i < end; i++) {
+                            ByteBuffer chunk = chunks.get(i);
+                            putIntLE(prefix, 1, chunk.remaining());
+                            md.update(prefix);
+                            md.update(chunk);
+                            md.digest(chunkDigests, 5 + i * digestLength, digestLength);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, null));
+        }
+        runInParallel(tasks);
+
+        return MessageDigest.getInstance(algorithm).digest(chunkDigests);
+    }
+
+    private static void runInParallel(List<FutureTask<Void>> tasks) throws Exception {
+        Executor executor = RunUtil.getThreadPool();
+        try {
+            for (int i = 1; i < tasks.size(); i++) {
+                executor.execute(tasks.get(i));
+            }
+        } catch (RejectedExecutionException e) {
+            // the pool is full, the tasks not submitted are run below
+        }
+        // The caller takes its share and the tasks not picked up by the pool yet,
+        // so that it makes progress even if it's called on a thread of the pool.
+        for (FutureTask<Void> task : tasks) {
+            task.run();
+        }
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException && cause.getCause() instanceof Exception) {
+                    throw (Exception) cause.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * v1 fallback, the entries are verified against the manifest by {@link JarFile} while they are read.
+     */
+    private static Result verifyJarSignature(File apk) throws Exception {
+        JarFile jar = new JarFile(apk, true);
+        try {
+            Certificate[] certificates = null;
+            byte[] buffer = new byte[8192];
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+
+                // Throws SecurityException if the entry was tampered.
+                InputStream in = jar.getInputStream(entry);
+                try {
+                    while (in.read(buffer) != -1) {
+                    }
+                } finally {
+                    in.close();
+                }
+
+                Certificate[] entryCertificates = entry.getCertificates();
+                if (entryCertificates == null || entryCertificates.length == 0) {
+                    throw new SecurityException("Unsigned entry " + entry.getName());
+                }
+                if (certificates == null) {
+                    certificates = entryCertificates;
+                } else if (!Arrays.equals(certificates, entryCertificates)) {
+                    throw new SecurityException("Entry " + entry.getName() + " has different signers");
+                }
+            }
+
+            if (certificates == null) {
+                throw new SecurityException("No signed entry in " + apk.getName());
+            }
+            return new Result(SCHEME_V1, certificates);
+
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * @return value of the id-value pair in the signing block, or null if there isn't one.
+     */
+    private static ByteBuffer findSchemeBlock(ApkArchive archive, int blockId) throws IOException {
+        int pairsOffset = archive.getSigningBlockOffset() + 8;
+        ByteBuffer pairs = archive.slice(pairsOffset, archive.getCentralDirectoryOffset() - 24 - pairsOffset);
+        while (pairs.hasRemaining()) {
+            if (pairs.remaining() < 8) {
+                throw new IOException("Malformed APK signing block");
+            }
+            long length = pairs.getLong();
+            if (length < 4 || length > pairs.remaining()) {
+                throw new IOException("Malformed pair in APK signing block");
+            }
+            int id = pairs.getInt();
+            if (id == blockId) {
+                return slice(pairs, pairs.position(), (int) length - 4);
+            }
+            pairs.position(pairs.position() + (int) length - 4);
+        }
+        return null;
+    }
+
+    private static ByteBuffer slice(ByteBuffer source, int offset, int length) {
+        ByteBuffer duplicate = source.duplicate();
+        duplicate.limit(offset + length);
+        duplicate.position(offset);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer getLengthPrefixedSlice(ByteBuffer source) throws IOException {
+        if (source.remaining() < 4) {
+            throw new IOException("Remaining buffer too short for length: " + source.remaining());
+        }
+        int length = source.getInt();
+        if (length < 0 || length > source.remaining()) {
+            throw new IOException("Length " + length + " out of range, remaining: " + source.remaining());
+        }
+        ByteBuffer result = slice(source, source.position(), length);
+        source.position(source.position() + length);
+        return result;
+    }
+
+    private static byte[] readLengthPrefixedBytes(ByteBuffer source) throws IOException {
+        ByteBuffer slice = getLengthPrefixedSlice(source);
+        byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        return bytes;
+    }
+
+    private static void putIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static boolean isSupportedAlgorithm(int algorithm) {
+        switch (algorithm) {
+            case SIGNATURE_RSA_PSS_WITH_SHA256:
+            case SIGNATURE_RSA_PSS_WITH_SHA512:
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256:
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA512:
+            case SIGNATURE_ECDSA_WITH_SHA256:
+            case SIGNATURE_ECDSA_WITH_SHA512:
+            case SIGNATURE_DSA_WITH_SHA256:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isStrongerAlgorithm(int algorithm, int other) {
+        return "SHA-512".equals(getDigestAlgorithm(algorithm)) && !"SHA-512".equals(getDigestAlgorithm(other));
+    }
+
+    private static String getDigestAlgorithm(int algorithm) {
+        switch (algorithm) {
+            case SIGNATURE_RSA_PSS_WITH_SHA512:
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA512:
+            case SIGNATURE_ECDSA_WITH_SHA512:
+                return "SHA-512";
+            default:
+                return "SHA-256";
+        }
+    }
+
+    private static String getKeyAlgorithm(int algorithm) {
+        switch (algorithm) {
+            case SIGNATURE_ECDSA_WITH_SHA256:
+            case SIGNATURE_ECDSA_WITH_SHA512:
+                return "EC";
+            case SIGNATURE_DSA_WITH_SHA256:
+                return "DSA";
+            default:
+                return "RSA";
+        }
+    }
+
+    private static String getSignatureAlgorithm(int algorithm) {
+        switch (algorithm) {
+            case SIGNATURE_RSA_PSS_WITH_SHA256:
+                return "SHA256withRSA/PSS";
+            case SIGNATURE_RSA_PSS_WITH_SHA512:
+                return "SHA512withRSA/PSS";
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256:
+                return "SHA256withRSA";
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA512:
+                return "SHA512withRSA";
+            case SIGNATURE_ECDSA_WITH_SHA256:
+                return "SHA256withECDSA";
+            case SIGNATURE_ECDSA_WITH_SHA512:
+                return "SHA512withECDSA";
+            case SIGNATURE_DSA_WITH_SHA256:
+                return "SHA256withDSA";
+            default:
+                throw new IllegalArgumentException("Unknown signature algorithm " + algorithm);
+        }
+    }
+
+    public static class Result {
+        private final int mScheme;
+        private final Certificate[] mCertificates;
+
+        Result(int scheme, Certificate[] certificates) {
+            mScheme = scheme;
+            mCertificates = certificates;
+        }
+
+        /**
+         * @return {@link #SCHEME_V1}, {@link #SCHEME_V2} or {@link #SCHEME_V3}
+         */
+        public int getScheme() {
+            return mScheme;
+        }
+
+        public Certificate[] getCertificates() {
+            return mCertificates;
+        }
+
+        public Certificate getSigningCertificate() {
+            return mCertificates[0];
+        }
+    }
+
+}
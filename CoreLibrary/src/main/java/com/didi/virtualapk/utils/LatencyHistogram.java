@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.utils;
+
+/**
+ * Histogram of latencies in ms with log-linear buckets: every power of two is split in
+ * {@link #SUB_BUCKETS} buckets, so a percentile is within 1/8 of the recorded values.
+ * Latencies over {@link #MAX_MILLIS} are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    public static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 17;
+    public static final long MAX_MILLIS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final long[] mCounts = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+    private long mCount;
+    private long mTotalMillis;
+    private long mMaxMillis;
+
+    public synchronized void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+        mCounts[getBucket(millis)]++;
+        mCount++;
+        mTotalMillis += millis;
+        mMaxMillis = Math.max(mMaxMillis, millis);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getAverageMillis() {
+        return mCount == 0 ? 0 : mTotalMillis / mCount;
+    }
+
+    public synchronized long getMaxMillis() {
+        return mMaxMillis;
+    }
+
+    /**
+     * @param percent in (0, 100], e.g. 50 for p50 and 99 for p99
+     * @return the upper bound of the bucket which holds the percentile, 0 if nothing is recorded
+     */
+    public synchronized long getPercentileMillis(double percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(mCount * percent / 100);
+        rank = Math.max(1, Math.min(mCount, rank));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), mMaxMillis);
+            }
+        }
+        return mMaxMillis;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mTotalMillis = 0;
+        mMaxMillis = 0;
+    }
+
+    static int getBucket(long millis) {
+        if (millis < SUB_BUCKETS) {
+            return (int) millis;
+        }
+        millis = Math.min(millis, MAX_MILLIS);
+        int exponent = 63 - Long.numberOfLeadingZeros(millis);
+        int sub = (int) (millis >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (((long) (SUB_BUCKETS + sub + 1)) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mCount + ", avg=" + getAverageMillis() + "ms, p50=" + getPercentileMillis(50)
+            + "ms, p99=" + getPercentileMillis(99) + "ms, max=" + mMaxMillis + "ms";
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.utils;
+
+import android.app.ActivityManager;
+import android.app.ActivityThread;
+import android.content.Context;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.didi.virtualapk.internal.Constants;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Identity of the current process. It's resolved once and cached, the process never changes.
+ * see {@link #get(Context)}
+ */
+public final class ProcessInfo {
+
+    public static final String TAG = Constants.TAG_PREFIX + "ProcessInfo";
+
+    /**
+     * The default process of the host app.
+     */
+    public static final int TYPE_MAIN = 0;
+    /**
+     * The process of {@link com.didi.virtualapk.delegate.RemoteService}.
+     */
+    public static final int TYPE_DAEMON = 1;
+    public static final int TYPE_OTHER = 2;
+
+    private static final String DAEMON_SUFFIX = ":daemon";
+
+    private static volatile ProcessInfo sProcessInfo;
+
+    private final int mPid;
+    private final String mName;
+    private final int mType;
+
+    private ProcessInfo(int pid, String name, int type) {
+        mPid = pid;
+        mName = name;
+        mType = type;
+    }
+
+    public static ProcessInfo get(Context context) {
+        ProcessInfo info = sProcessInfo;
+        if (info == null) {
+            synchronized (ProcessInfo.class) {
+                info = sProcessInfo;
+                if (info == null) {
+                    info = create(context);
+                    sProcessInfo = info;
+                }
+            }
+        }
+        return info;
+    }
+
+    private static ProcessInfo create(Context context) {
+        int pid = Process.myPid();
+        String name = readCmdline();
+        if (TextUtils.isEmpty(name)) {
+            name = getCurrentProcessName();
+        }
+        if (TextUtils.isEmpty(name)) {
+            name = getProcessNameByPid(context, pid);
+        }
+
+        String packageName = context.getPackageName();
+        int type;
+        if (packageName.equals(name)) {
+            type = TYPE_MAIN;
+        } else if ((packageName + DAEMON_SUFFIX).equals(name)) {
+            type = TYPE_DAEMON;
+        } else {
+            type = TYPE_OTHER;
+        }
+
+        ProcessInfo info = new ProcessInfo(pid, name, type);
+        Log.d(TAG, info.toString());
+        return info;
+    }
+
+    private static String readCmdline() {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream("/proc/self/cmdline");
+            byte[] buffer = new byte[256];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+            // The arguments are separated by '\0', the first one is the process name.
+            int end = 0;
+            while (end < length && buffer[end] != 0) {
+                end++;
+            }
+            return new String(buffer, 0, end, "UTF-8").trim();
+
+        } catch (Throwable e) {
+            Log.w(TAG, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static String getCurrentProcessName() {
+        try {
+            return ActivityThread.currentProcessName();
+        } catch (Throwable e) {
+            Log.w(TAG, e);
+        }
+
+        return null;
+    }
+
+    private static String getProcessNameByPid(Context context, int pid) {
+        try {
+            ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            List<ActivityManager.RunningAppProcessInfo> appProcessList = manager.getRunningAppProcesses();
+            if (appProcessList != null) {
+                for (ActivityManager.RunningAppProcessInfo appProcessInfo : appProcessList) {
+                    if (pid == appProcessInfo.pid) {
+                        return appProcessInfo.processName;
+                    }
+                }
+            }
+
+        } catch (Throwable e) {
+            Log.w(TAG, e);
+        }
+
+        return null;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    /**
+     * @return name of the process, null if it can't be resolved.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return {@link #TYPE_MAIN}, {@link #TYPE_DAEMON} or {@link #TYPE_OTHER}
+     */
+    public int getType() {
+        return mType;
+    }
+
+    public boolean isMainProcess() {
+        return mType == TYPE_MAIN;
+    }
+
+    public boolean isDaemonProcess() {
+        return mType == TYPE_DAEMON;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessInfo[pid=" + mPid + ", name=" + mName + ", type=" + mType + "]";
+    }
+
+}
@@ -16,21 +16,24 @@
 
 package com.didi.virtualapk.utils;
 
-import android.app.ActivityManager;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
 import android.util.Log;
-import android.util.Pair;
 
 import com.didi.virtualapk.internal.Constants;
 
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by renyugang on 16/11/10.
@@ -39,7 +42,25 @@ public class RunUtil {
 
     private static final int MESSAGE_RUN_ON_UITHREAD = 0x1;
 
+    /**
+     * Time budget of one drain pass, the remaining tasks are drained in the next message
+     * so that a burst of submissions doesn't hold the main looper over a frame.
+     */
+    private static final long DRAIN_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+
+    /**
+     * Lane of the tasks which block the startup, such as {@link com.didi.virtualapk.PluginManager#init()}.
+     */
+    public static final int LANE_CRITICAL = 0;
+    /**
+     * Lane of the other background tasks, such as preloading plugins.
+     */
+    public static final int LANE_BACKGROUND = 1;
+
     private static Handler sHandler;
+    private static final ConcurrentLinkedQueue<Runnable> sPendingTasks = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean sDrainScheduled = new AtomicBoolean();
+    private static final Executor[] sThreadPools = new Executor[2];
 
     /**
      * execute a runnable on ui thread, then return immediately. see also {@link #runOnUiThread(Runnable, boolean)}
@@ -55,56 +76,121 @@ public class RunUtil {
      * @param waitUtilDone if set true, the caller thread will wait until the specific runnable finished.
      */
     public static void runOnUiThread(Runnable runnable, boolean waitUtilDone) {
-        if (Thread.currentThread() == Looper.getMainLooper().getThread()) {
+        if (isMainThread()) {
             runnable.run();
             return;
         }
 
-        CountDownLatch countDownLatch = null;
-        if (waitUtilDone) {
-            countDownLatch = new CountDownLatch(1);
+        if (!waitUtilDone) {
+            enqueue(runnable);
+            return;
         }
-        Pair<Runnable, CountDownLatch> pair = new Pair<>(runnable, countDownLatch);
-        getHandler().obtainMessage(MESSAGE_RUN_ON_UITHREAD, pair).sendToTarget();
-        if (waitUtilDone) {
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                Log.w(Constants.TAG, e);
+
+        UiFuture<Void> future = new UiFuture<>(runnable);
+        enqueue(future);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Log.w(Constants.TAG, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new RuntimeException(cause);
         }
     }
 
-    public static Executor getThreadPool() {
-        return AsyncTask.THREAD_POOL_EXECUTOR;
+    /**
+     * submit a callable to ui thread, then return immediately. The pending submissions are
+     * drained together by one message of the main looper. If the caller is the ui thread,
+     * the callable is run directly and the returned future is already done.
+     * <p>
+     * Calling {@link Future#get()} on the ui thread drains the pending submissions in place,
+     * it fails with {@link IllegalStateException} instead of blocking the ui thread forever.
+     * @param callable the callable prepared to run
+     */
+    public static <T> Future<T> submitOnUiThread(Callable<T> callable) {
+        UiFuture<T> future = new UiFuture<>(callable);
+        if (isMainThread()) {
+            future.run();
+        } else {
+            enqueue(future);
+        }
+        return future;
     }
 
-    private static String getProcessNameByPid(Context context, int pid) {
+    /**
+     * execute a callable on ui thread and wait for its result.
+     * @param callable the callable prepared to run
+     * @throws Exception the exception thrown by the callable
+     */
+    public static <T> T callOnUiThread(Callable<T> callable) throws Exception {
         try {
-            ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-            List<ActivityManager.RunningAppProcessInfo> appProcessList = manager.getRunningAppProcesses();
-            if (appProcessList != null) {
-                for (ActivityManager.RunningAppProcessInfo appProcessInfo : appProcessList) {
-                    if (pid == appProcessInfo.pid) {
-                        return appProcessInfo.processName;
-                    }
+            return submitOnUiThread(callable).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * post a runnable to ui thread, then return immediately. Unlike {@link #runOnUiThread(Runnable)},
+     * the runnable is always queued after the pending messages, even if the caller is the ui thread.
+     * @param runnable the runnable prepared to run
+     */
+    public static void postOnUiThread(Runnable runnable) {
+        getHandler().post(runnable);
+    }
+
+    public static Executor getThreadPool() {
+        return getThreadPool(LANE_BACKGROUND);
+    }
+
+    /**
+     * The thread pool of the lane, it's a {@link TaskExecutor} owned by VirtualAPK
+     * unless the host app supplied its own one by {@link #setThreadPool(int, Executor)}.
+     * @param lane {@link #LANE_CRITICAL} or {@link #LANE_BACKGROUND}
+     */
+    public static Executor getThreadPool(int lane) {
+        synchronized (sThreadPools) {
+            if (sThreadPools[lane] == null) {
+                if (lane == LANE_CRITICAL) {
+                    TaskExecutor executor = new TaskExecutor("VA-Critical", 2, 64, Process.THREAD_PRIORITY_DEFAULT);
+                    // a burst of critical tasks spills into the background lane rather than the caller
+                    executor.setOverflow(getThreadPool(LANE_BACKGROUND));
+                    sThreadPools[lane] = executor;
+                } else {
+                    sThreadPools[lane] = new TaskExecutor("VA-Background", 2, 128, Process.THREAD_PRIORITY_BACKGROUND);
                 }
             }
-    
-        } catch (Throwable e) {
-            Log.w(Constants.TAG, e);
+            return sThreadPools[lane];
         }
-        
-        return null;
     }
 
-    public static boolean isMainProcess(Context context) {
-        String processName = getProcessNameByPid(context, Process.myPid());
-        if (context.getPackageName().equals(processName)) {
-            return true;
+    /**
+     * Supply the thread pool of the lane, it should be called before {@link com.didi.virtualapk.PluginManager#init()}.
+     * @param lane {@link #LANE_CRITICAL} or {@link #LANE_BACKGROUND}
+     * @param executor the executor used by the lane
+     */
+    public static void setThreadPool(int lane, Executor executor) {
+        synchronized (sThreadPools) {
+            sThreadPools[lane] = executor;
         }
+    }
 
-        return false;
+    /**
+     * The result is cached, see {@link ProcessInfo#get(Context)}.
+     */
+    public static boolean isMainProcess(Context context) {
+        return ProcessInfo.get(context).isMainProcess();
     }
 
     private static Handler getHandler() {
@@ -116,6 +202,78 @@ public class RunUtil {
         }
     }
 
+    public static boolean isMainThread() {
+        return Thread.currentThread() == Looper.getMainLooper().getThread();
+    }
+
+    private static void enqueue(Runnable task) {
+        sPendingTasks.offer(task);
+        scheduleDrain();
+    }
+
+    private static void scheduleDrain() {
+        if (sDrainScheduled.compareAndSet(false, true)) {
+            getHandler().sendEmptyMessage(MESSAGE_RUN_ON_UITHREAD);
+        }
+    }
+
+    /**
+     * Run the pending tasks on ui thread until the queue is empty or the budget is used up.
+     */
+    private static void drainPendingTasks(long budgetNanos) {
+        // Clear the flag first, the tasks enqueued from now on schedule another pass.
+        sDrainScheduled.set(false);
+        final long deadline = System.nanoTime() + budgetNanos;
+        try {
+            Runnable task;
+            while ((task = sPendingTasks.poll()) != null) {
+                task.run();
+                if (System.nanoTime() - deadline > 0) {
+                    break;
+                }
+            }
+        } finally {
+            // A task without future may throw, the others still get their turn.
+            if (!sPendingTasks.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private static class UiFuture<T> extends FutureTask<T> {
+
+        public UiFuture(Callable<T> callable) {
+            super(callable);
+        }
+
+        public UiFuture(Runnable runnable) {
+            super(runnable, null);
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            checkMainThread();
+            return super.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            checkMainThread();
+            return super.get(timeout, unit);
+        }
+
+        private void checkMainThread() {
+            if (isDone() || !isMainThread()) {
+                return;
+            }
+            drainPendingTasks(Long.MAX_VALUE);
+            if (!isDone()) {
+                // The task is running further up the stack of the ui thread, waiting would never return.
+                throw new IllegalStateException("Waiting on ui thread for a task which is running on it");
+            }
+        }
+    }
+
     private static class InternalHandler extends Handler {
         public InternalHandler() {
             super(Looper.getMainLooper());
@@ -124,16 +282,7 @@ public class RunUtil {
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == MESSAGE_RUN_ON_UITHREAD) {
-                Pair<Runnable, CountDownLatch> pair = (Pair<Runnable, CountDownLatch>) msg.obj;
-                try {
-                    Runnable runnable = pair.first;
-                    runnable.run();
-    
-                } finally {
-                    if (pair.second != null) {
-                        pair.second.countDown();
-                    }
-                }
+                drainPendingTasks(DRAIN_BUDGET_NANOS);
             }
         }
     }
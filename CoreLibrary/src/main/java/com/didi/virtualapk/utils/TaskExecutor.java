@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.didi.virtualapk.utils;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool owned by VirtualAPK, with named threads, a bounded queue and metrics of the queue.
+ * Tasks are never run in the caller thread, which is often the ui thread. When the queue is full,
+ * the task is handed to the overflow executor if any, otherwise it's rejected and counted.
+ * see {@link RunUtil#getThreadPool(int)}
+ */
+public class TaskExecutor extends ThreadPoolExecutor {
+
+    private final String mName;
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicLong mTotalRunNanos = new AtomicLong();
+    private final AtomicLong mOverflowCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private volatile Executor mOverflow;
+
+    /**
+     * @param name prefix of the thread names
+     * @param threadCount count of the threads, idle threads are reclaimed after a while
+     * @param queueCapacity capacity of the pending tasks
+     * @param threadPriority priority of the threads, see {@link Process#setThreadPriority(int)}
+     */
+    public TaskExecutor(String name, int threadCount, int queueCapacity, int threadPriority) {
+        super(threadCount, threadCount, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(queueCapacity),
+            new NamedThreadFactory(name, threadPriority),
+            new OverflowPolicy());
+        allowCoreThreadTimeOut(true);
+        mName = name;
+    }
+
+    /**
+     * @param overflow the executor running the tasks which don't fit in the queue,
+     *                 null to reject them with {@link RejectedExecutionException}
+     */
+    public void setOverflow(Executor overflow) {
+        mOverflow = overflow;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        mSubmittedCount.incrementAndGet();
+        super.execute(new Task(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof Task) {
+            Task task = (Task) r;
+            task.mStartTime = System.nanoTime();
+            long wait = task.mStartTime - task.mSubmitTime;
+            mTotalWaitNanos.addAndGet(wait);
+            long max;
+            while (wait > (max = mMaxWaitNanos.get()) && !mMaxWaitNanos.compareAndSet(max, wait)) {
+            }
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        if (r instanceof Task) {
+            mTotalRunNanos.addAndGet(System.nanoTime() - ((Task) r).mStartTime);
+        }
+        mCompletedCount.incrementAndGet();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return count of the tasks waiting in the queue
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    /**
+     * @return count of the tasks run by the pool threads
+     */
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return count of the tasks handed to the overflow executor
+     */
+    public long getOverflowCount() {
+        return mOverflowCount.get();
+    }
+
+    /**
+     * @return count of the tasks rejected because the queue was full or the pool was shut down
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * @return average time in ms of the tasks waiting in the queue
+     */
+    public long getAverageWaitMillis() {
+        long completed = mCompletedCount.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalWaitNanos.get() / completed);
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos.get());
+    }
+
+    public long getAverageRunMillis() {
+        long completed = mCompletedCount.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalRunNanos.get() / completed);
+    }
+
+    @Override
+    public String toString() {
+        return mName + "[queue=" + getQueueDepth() + ", active=" + getActiveCount()
+            + ", submitted=" + getSubmittedCount() + ", completed=" + getCompletedCount()
+            + ", avgWait=" + getAverageWaitMillis() + "ms, maxWait=" + getMaxWaitMillis()
+            + "ms, avgRun=" + getAverageRunMillis() + "ms, overflow=" + getOverflowCount()
+            + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    private static final class Task implements Runnable {
+        final Runnable mCommand;
+        final long mSubmitTime = System.nanoTime();
+        long mStartTime;
+
+        Task(Runnable command) {
+            mCommand = command;
+        }
+
+        @Override
+        public void run() {
+            mCommand.run();
+        }
+    }
+
+    private static final class OverflowPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            TaskExecutor taskExecutor = (TaskExecutor) executor;
+            Runnable command = r instanceof Task ? ((Task) r).mCommand : r;
+            Executor overflow = taskExecutor.mOverflow;
+            if (overflow != null && overflow != executor && !executor.isShutdown()) {
+                try {
+                    overflow.execute(command);
+                    taskExecutor.mOverflowCount.incrementAndGet();
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the overflow executor is full too
+                }
+            }
+            taskExecutor.mRejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Task " + command + " rejected from " + taskExecutor);
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        NamedThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    r.run();
+                }
+            }, mName + "#" + mCount.getAndIncrement());
+        }
+    }
+
+}
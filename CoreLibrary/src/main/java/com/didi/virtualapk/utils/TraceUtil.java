@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.utils;
+
+import android.os.Build;
+
+/**
+ * Trace sections of the plugin framework: loading plugins, starting activities, the intercepted
+ * {@link android.app.IActivityManager} calls, local services and providers.
+ * {@link Tracer.SystemTracer} is used by default, use {@link #setTracer(Tracer)} to replace it,
+ * e.g. with {@link Tracer.NoOpTracer} to turn the tracing off.
+ */
+public class TraceUtil {
+
+    private static volatile Tracer sTracer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+        ? new Tracer.SystemTracer() : new Tracer.NoOpTracer();
+
+    /**
+     * Set it before loading plugins, the sections open at the time would be ended on the new tracer.
+     *
+     * @param tracer null to drop all the sections
+     */
+    public static void setTracer(Tracer tracer) {
+        sTracer = tracer != null ? tracer : new Tracer.NoOpTracer();
+    }
+
+    public static Tracer getTracer() {
+        return sTracer;
+    }
+
+    public static boolean isEnabled() {
+        return sTracer.isEnabled();
+    }
+
+    public static void beginSection(String name) {
+        sTracer.beginSection(name);
+    }
+
+    /**
+     * The section name is built only if the tracer is enabled.
+     */
+    public static void beginSection(String name, String detail) {
+        Tracer tracer = sTracer;
+        if (tracer.isEnabled()) {
+            tracer.beginSection(name + ":" + detail);
+        } else {
+            tracer.beginSection(name);
+        }
+    }
+
+    public static void endSection() {
+        sTracer.endSection();
+    }
+
+}
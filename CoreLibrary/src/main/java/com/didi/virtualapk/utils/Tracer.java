@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import com.didi.virtualapk.internal.Constants;
+
+import java.lang.reflect.Method;
+
+/**
+ * Backend of the trace sections emitted by VirtualAPK, see {@link TraceUtil}.
+ * The sections are nested, {@link #endSection()} ends the latest section begun on the same thread.
+ */
+public interface Tracer {
+
+    /**
+     * @return false if the sections are dropped, so the callers could skip building the section names
+     */
+    boolean isEnabled();
+
+    void beginSection(String name);
+
+    void endSection();
+
+    /**
+     * Drops all the sections.
+     */
+    class NoOpTracer implements Tracer {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+    }
+
+    /**
+     * Emits the sections through {@link Trace}, so they show up in systrace and perfetto along with the framework's.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    class SystemTracer implements Tracer {
+        /**
+         * Trace.TRACE_TAG_APP
+         */
+        private static final long TRACE_TAG_APP = 1L << 12;
+        private static final int MAX_SECTION_NAME_LENGTH = 127;
+        private static final String TAG = Constants.TAG_PREFIX + "SystemTracer";
+
+        private final Method mIsEnabled;
+        private final Object[] mIsEnabledArgs;
+
+        public SystemTracer() {
+            Method method = null;
+            Object[] args = null;
+            try {
+                if (Build.VERSION.SDK_INT >= 29) {
+                    method = Trace.class.getMethod("isEnabled");
+                } else {
+                    method = Trace.class.getMethod("isTagEnabled", long.class);
+                    args = new Object[] {TRACE_TAG_APP};
+                }
+            } catch (Exception e) {
+                Log.w(TAG, e);
+            }
+            mIsEnabled = method;
+            mIsEnabledArgs = args;
+        }
+
+        /**
+         * The method is resolved once, invoking it is safe on any thread.
+         */
+        @Override
+        public boolean isEnabled() {
+            if (mIsEnabled == null) {
+                return true;
+            }
+            try {
+                return (Boolean) mIsEnabled.invoke(null, mIsEnabledArgs);
+            } catch (Exception e) {
+                return true;
+            }
+        }
+
+        @Override
+        public void beginSection(String name) {
+            if (name.length() > MAX_SECTION_NAME_LENGTH) {
+                name = name.substring(0, MAX_SECTION_NAME_LENGTH);
+            }
+            Trace.beginSection(name);
+        }
+
+        @Override
+        public void endSection() {
+            Trace.endSection();
+        }
+    }
+
+}
@@ -21,11 +21,14 @@ import android.util.Base64;
 import android.util.Log;
 
 import com.didi.virtualapk.internal.Constants;
+import com.didi.virtualapk.internal.utils.Settings;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
@@ -33,6 +36,7 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
@@ -48,27 +52,74 @@ import java.util.zip.ZipFile;
  */
 public class ZipVerifyUtil {
 
+    private static final ConcurrentHashMap<String, Certificate> sAssetCertificates = new ConcurrentHashMap<>();
+
     public static boolean verifyZip(Context context, String zipPath) {
         return verifyZip(context, zipPath, "test.cer");
     }
     
     public static boolean verifyZip(Context context, String zipPath, String cerName) {
         try {
-            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
-            InputStream in = context.getAssets().open(cerName);
-            Certificate certificate = certificateFactory.generateCertificate(in);
-            in.close();
-            return verifyZip(zipPath, certificate);
+            return verifyZip(context, zipPath, getAssetCertificate(context, cerName));
         } catch (IOException | CertificateException e) {
             Log.w(Constants.TAG, e);
             return false;
         }
     }
 
+    /**
+     * Same as {@link #verifyZip(String, Certificate)}, but the result of an apk in the private data
+     * directory of the app is cached. Until the apk is changed, it's not verified again.
+     * The apks in other places could be changed by others at any time, they are always verified.
+     */
+    public static boolean verifyZip(Context context, String zipPath, Certificate remoteCertificate) {
+        File apk = new File(zipPath);
+        ApkArchive archive = null;
+        try {
+            archive = ApkArchive.open(apk);
+            String identity = null;
+            if (isPrivateFile(context, apk)) {
+                // Taken before the verification, a change in the meantime makes a mismatch next time.
+                identity = getIdentity(archive, remoteCertificate);
+                if (identity.equals(Settings.getVerifiedApk(context, apk.getAbsolutePath()))) {
+                    Log.d(Constants.TAG, "verifyZip " + zipPath + " cached");
+                    return true;
+                }
+            }
+
+            boolean valid = verifyZip(archive, remoteCertificate);
+            if (valid && identity != null) {
+                Settings.setVerifiedApk(context, apk.getAbsolutePath(), identity);
+            }
+            return valid;
+
+        } catch (Exception e) {
+            Log.w(Constants.TAG, e);
+            return false;
+        } finally {
+            closeQuietly(archive);
+        }
+    }
+
     public static boolean verifyZip(String zipPath, Certificate remoteCertificate) {
+        ApkArchive archive = null;
         try {
-            String certPath = checkZipFileForCertificate(zipPath);
-            Certificate certificate = getCertificateFromZip(zipPath, certPath);
+            archive = ApkArchive.open(new File(zipPath));
+            return verifyZip(archive, remoteCertificate);
+        } catch (IOException e) {
+            Log.w(Constants.TAG, e);
+            return false;
+        } finally {
+            closeQuietly(archive);
+        }
+    }
+
+    /**
+     * Verify the apk opened by the caller, so that the archive could be shared with the other stages of loading.
+     */
+    public static boolean verifyZip(ApkArchive archive, Certificate remoteCertificate) {
+        try {
+            Certificate certificate = ApkSignatureVerifier.verify(archive).getSigningCertificate();
             remoteCertificate.verify(certificate.getPublicKey());
             return true;
         } catch (Exception e) {
@@ -77,6 +128,63 @@ public class ZipVerifyUtil {
         }
     }
 
+    /**
+     * The certificates in assets are parsed once and kept in memory.
+     */
+    public static Certificate getAssetCertificate(Context context, String cerName) throws IOException, CertificateException {
+        Certificate certificate = sAssetCertificates.get(cerName);
+        if (certificate == null) {
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            InputStream in = context.getAssets().open(cerName);
+            try {
+                certificate = certificateFactory.generateCertificate(in);
+            } finally {
+                in.close();
+            }
+            sAssetCertificates.put(cerName, certificate);
+        }
+        return certificate;
+    }
+
+    /**
+     * Identity of the apk verified by the certificate: size, last modified time, fingerprint of the apk
+     * and SHA-256 of the certificate.
+     */
+    private static String getIdentity(ApkArchive archive, Certificate remoteCertificate) throws Exception {
+        File apk = archive.getFile();
+        byte[] fingerprint = ApkSignatureVerifier.computeFingerprint(archive);
+        byte[] certificateId = MessageDigest.getInstance("SHA-256").digest(remoteCertificate.getEncoded());
+        return apk.length() + ":" + apk.lastModified() + ":" + toHex(fingerprint) + ":" + toHex(certificateId);
+    }
+
+    private static boolean isPrivateFile(Context context, File file) {
+        try {
+            String dataDir = new File(context.getApplicationInfo().dataDir).getCanonicalPath();
+            return file.getCanonicalPath().startsWith(dataDir + File.separator);
+        } catch (IOException e) {
+            Log.w(Constants.TAG, e);
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
     public static Certificate getCertificateFromZip(String zipPath, String certPath) throws Exception {
         CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
         ZipFile zip = new ZipFile(new File(zipPath));
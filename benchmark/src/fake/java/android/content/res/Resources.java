@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content.res;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fake of the framework Resources for the benchmarks, only themes are supported.
+ * The attributes of a theme are set by {@link Theme#setBoolean(int, boolean)}.
+ */
+public class Resources {
+
+    public Resources() {
+    }
+
+    public final Theme newTheme() {
+        return new Theme();
+    }
+
+    public final class Theme {
+        private final Map<Integer, Boolean> mBooleans = new HashMap<>();
+
+        Theme() {
+        }
+
+        public void applyStyle(int resId, boolean force) {
+        }
+
+        public void setBoolean(int attr, boolean value) {
+            mBooleans.put(attr, value);
+        }
+
+        public TypedArray obtainStyledAttributes(int[] attrs) {
+            boolean[] values = new boolean[attrs.length];
+            boolean[] hasValues = new boolean[attrs.length];
+            for (int i = 0; i < attrs.length; i++) {
+                Boolean value = mBooleans.get(attrs[i]);
+                if (value != null) {
+                    values[i] = value;
+                    hasValues[i] = true;
+                }
+            }
+            return new TypedArray(values, hasValues);
+        }
+    }
+
+}
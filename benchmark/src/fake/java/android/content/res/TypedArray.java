@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content.res;
+
+/**
+ * Fake of the framework TypedArray for the benchmarks, see {@link Resources.Theme#obtainStyledAttributes(int[])}.
+ */
+public class TypedArray {
+
+    private final boolean[] mValues;
+    private final boolean[] mHasValues;
+
+    TypedArray(boolean[] values, boolean[] hasValues) {
+        mValues = values;
+        mHasValues = hasValues;
+    }
+
+    public boolean getBoolean(int index, boolean defValue) {
+        return mHasValues[index] ? mValues[index] : defValue;
+    }
+
+    public boolean hasValue(int index) {
+        return mHasValues[index];
+    }
+
+    public int length() {
+        return mValues.length;
+    }
+
+    public void recycle() {
+    }
+
+}
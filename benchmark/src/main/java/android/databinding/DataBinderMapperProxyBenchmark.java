@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.databinding;
+
+import com.didi.virtualapk.utils.Reflector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DataBinderMapperProxy} lookups with the mappers of 1 to 100 plugins. The looked up layout and BR id
+ * belong to the last plugin, the worst case of the linear search; a miss walks all the mappers as well.
+ * It's in the package of DataBinderMapper which is package-private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DataBinderMapperProxyBenchmark {
+
+    private static final int LAYOUTS_PER_PLUGIN = 20;
+
+    @Param({"1", "10", "100"})
+    public int pluginCount;
+
+    private DataBinderMapperProxy mProxy;
+    private String mLastTag;
+    private int mLastBrId;
+
+    @Setup
+    public void setup() throws Exception {
+        mProxy = new DataBinderMapperProxy(new PluginMapper(0));
+        Reflector addMapper = Reflector.on(DataBinderMapperProxy.class).method("addMapper", DataBinderMapper.class).bind(mProxy);
+        for (int i = 1; i < pluginCount; i++) {
+            addMapper.call(new PluginMapper(i));
+        }
+        mLastTag = PluginMapper.getTag(pluginCount - 1, LAYOUTS_PER_PLUGIN - 1);
+        mLastBrId = PluginMapper.getBrId(pluginCount - 1, LAYOUTS_PER_PLUGIN - 1);
+    }
+
+    @Benchmark
+    public int getLayoutId() {
+        return mProxy.getLayoutId(mLastTag);
+    }
+
+    @Benchmark
+    public int getLayoutIdMissed() {
+        return mProxy.getLayoutId("layout/missed_0");
+    }
+
+    @Benchmark
+    public String convertBrIdToString() {
+        return mProxy.convertBrIdToString(mLastBrId);
+    }
+
+    /**
+     * Behaves as a generated mapper: a switch on the hash of the tag, and a table of BR names.
+     */
+    static class PluginMapper extends DataBinderMapper {
+        private final int mPlugin;
+        private final String[] mTags = new String[LAYOUTS_PER_PLUGIN];
+        private final int[] mTagHashes = new int[LAYOUTS_PER_PLUGIN];
+
+        PluginMapper(int plugin) {
+            mPlugin = plugin;
+            for (int i = 0; i < LAYOUTS_PER_PLUGIN; i++) {
+                mTags[i] = getTag(plugin, i);
+                mTagHashes[i] = mTags[i].hashCode();
+            }
+        }
+
+        static String getTag(int plugin, int layout) {
+            return "layout/plugin" + plugin + "_activity_" + layout + "_0";
+        }
+
+        static int getBrId(int plugin, int layout) {
+            return (plugin + 1) * LAYOUTS_PER_PLUGIN + layout;
+        }
+
+        @Override
+        public int getLayoutId(String tag) {
+            if (tag == null) {
+                return 0;
+            }
+            int hash = tag.hashCode();
+            for (int i = 0; i < LAYOUTS_PER_PLUGIN; i++) {
+                if (mTagHashes[i] == hash && mTags[i].equals(tag)) {
+                    return 0x7f030000 + i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String convertBrIdToString(int id) {
+            int layout = id - (mPlugin + 1) * LAYOUTS_PER_PLUGIN;
+            if (layout < 0 || layout >= LAYOUTS_PER_PLUGIN) {
+                return null;
+            }
+            return mTags[layout];
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.benchmark;
+
+import android.app.IActivityManager;
+import android.content.IIntentSender;
+
+import com.didi.virtualapk.delegate.ActivityManagerProxy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ActivityManagerProxy#invoke(Object, Method, Object[])} dispatch of a call which is not intercepted,
+ * it's what every IActivityManager call of the app pays. The system binder is replaced by a proxy
+ * returning a constant, {@link #direct()} is the cost without ActivityManagerProxy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ActivityManagerProxyBenchmark {
+
+    private IActivityManager mActivityManager;
+    private IActivityManager mHookedActivityManager;
+    private Object[] mArgs;
+
+    @Setup
+    public void setup() {
+        mActivityManager = (IActivityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {IActivityManager.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "com.didi.virtualapk";
+                }
+            });
+        // the intercepted calls aren't reached, they are the only ones which use the PluginManager.
+        mHookedActivityManager = (IActivityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {IActivityManager.class}, new ActivityManagerProxy(null, mActivityManager));
+        mArgs = new Object[] {null};
+    }
+
+    @Benchmark
+    public String dispatch() throws Exception {
+        return mHookedActivityManager.getPackageForIntentSender((IIntentSender) mArgs[0]);
+    }
+
+    @Benchmark
+    public String direct() throws Exception {
+        return mActivityManager.getPackageForIntentSender((IIntentSender) mArgs[0]);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.benchmark;
+
+import com.didi.virtualapk.utils.Reflector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Reflector} lookups, the way the hooks use it: a lookup per call, or a reflector resolved once and reused.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ReflectorBenchmark {
+
+    private Target mTarget;
+    private Reflector mField;
+    private Reflector mMethod;
+
+    @Setup
+    public void setup() throws Exception {
+        mTarget = new Target();
+        mField = Reflector.with(mTarget).field("mValue");
+        mMethod = Reflector.with(mTarget).method("compute", int.class);
+    }
+
+    @Benchmark
+    public Object fieldLookup() throws Exception {
+        return Reflector.with(mTarget).field("mValue").get();
+    }
+
+    @Benchmark
+    public Object fieldReused() throws Exception {
+        return mField.get();
+    }
+
+    @Benchmark
+    public Object inheritedFieldLookup() throws Exception {
+        return Reflector.with(mTarget).field("mBaseValue").get();
+    }
+
+    @Benchmark
+    public Object methodLookup() throws Exception {
+        return Reflector.with(mTarget).method("compute", int.class).call(1);
+    }
+
+    @Benchmark
+    public Object methodReused() throws Exception {
+        return mMethod.call(1);
+    }
+
+    @Benchmark
+    public Object quietMethodLookup() {
+        return Reflector.QuietReflector.with(mTarget).method("compute", int.class).call(1);
+    }
+
+    @Benchmark
+    public Object classLookup() throws Exception {
+        return Reflector.on("com.didi.virtualapk.benchmark.ReflectorBenchmark$Target").field("sCount").get();
+    }
+
+    @Benchmark
+    public int direct() {
+        return mTarget.compute(1);
+    }
+
+    static class Base {
+        private Object mBaseValue = "base";
+    }
+
+    static class Target extends Base {
+        private static int sCount = 1;
+        private Object mValue = "value";
+
+        private int compute(int delta) {
+            return sCount + delta;
+        }
+    }
+
+}
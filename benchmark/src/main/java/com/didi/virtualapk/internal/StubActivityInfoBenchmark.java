@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Beijing Didi Infinity Technology and Development Co.,Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.didi.virtualapk.internal;
+
+import android.content.pm.ActivityInfo;
+import android.content.res.Resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StubActivityInfo#getStubActivity(String, int, Resources.Theme)}, for an activity dispatched the
+ * first time and for an activity already dispatched, which is served from the cache.
+ * It's in the package of StubActivityInfo which is package-private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class StubActivityInfoBenchmark {
+
+    private static final String[] ACTIVITIES = new String[64];
+
+    static {
+        for (int i = 0; i < ACTIVITIES.length; i++) {
+            ACTIVITIES[i] = "com.didi.virtualapk.demo.Activity" + i;
+        }
+    }
+
+    private Resources.Theme mTheme;
+    private Resources.Theme mTranslucentTheme;
+    private StubActivityInfo mStubActivityInfo;
+    private int mNext;
+
+    @Setup
+    public void setup() {
+        Resources resources = new Resources();
+        mTheme = resources.newTheme();
+        mTranslucentTheme = resources.newTheme();
+        mTranslucentTheme.setBoolean(android.R.attr.windowIsTranslucent, true);
+        mStubActivityInfo = new StubActivityInfo();
+        mStubActivityInfo.getStubActivity(ACTIVITIES[0], ActivityInfo.LAUNCH_MULTIPLE, mTheme);
+    }
+
+    @Benchmark
+    public String cached() {
+        return mStubActivityInfo.getStubActivity(ACTIVITIES[0], ActivityInfo.LAUNCH_MULTIPLE, mTheme);
+    }
+
+    @Benchmark
+    public String standard() {
+        return new StubActivityInfo().getStubActivity(nextActivity(), ActivityInfo.LAUNCH_MULTIPLE, mTheme);
+    }
+
+    @Benchmark
+    public String translucent() {
+        return new StubActivityInfo().getStubActivity(nextActivity(), ActivityInfo.LAUNCH_MULTIPLE, mTranslucentTheme);
+    }
+
+    @Benchmark
+    public String singleTask() {
+        return new StubActivityInfo().getStubActivity(nextActivity(), ActivityInfo.LAUNCH_SINGLE_TASK, mTheme);
+    }
+
+    private String nextActivity() {
+        mNext = (mNext + 1) % ACTIVITIES.length;
+        return ACTIVITIES[mNext];
+    }
+
+}
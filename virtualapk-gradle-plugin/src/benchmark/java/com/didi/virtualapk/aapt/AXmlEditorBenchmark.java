@@ -0,0 +1,75 @@
+package com.didi.virtualapk.aapt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AXmlEditor#setPackageId} on all the generated layouts, as Aapt#resetAllXmlPackageId does.
+ * Every invocation works on fresh copies of the files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AXmlEditorBenchmark {
+
+    @Param({"medium", "large"})
+    public String corpus;
+
+    private File mDir;
+    private AssetCorpus mCorpus;
+    private final List<File> mXmlFiles = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        mDir = Files.createTempDirectory("axml-benchmark").toFile();
+        mCorpus = AssetCorpus.generate(AssetCorpus.Spec.forName(corpus), new File(mDir, "source"));
+        for (File file : mCorpus.getXmlFiles()) {
+            mXmlFiles.add(new File(mDir, "work/" + file.getName()));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() throws IOException {
+        List<File> sources = mCorpus.getXmlFiles();
+        for (int i = 0; i < sources.size(); i++) {
+            AssetCorpus.copy(sources.get(i), mXmlFiles.get(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        AssetCorpus.deleteDir(mDir);
+    }
+
+    @Benchmark
+    public int setPackageId() {
+        int edited = 0;
+        for (File file : mXmlFiles) {
+            if (Boolean.TRUE.equals(new AXmlEditor(file).setPackageId(AssetCorpus.PLUGIN_PACKAGE_ID, mCorpus.getIdMaps()))) {
+                edited++;
+            }
+        }
+        return edited;
+    }
+}
@@ -0,0 +1,69 @@
+package com.didi.virtualapk.aapt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ArscEditor#slice} and {@link ArscEditor#reset} on a generated resources.arsc.
+ * Both rewrite the file, so every invocation works on a fresh copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ArscEditorBenchmark {
+
+    @Param({"medium", "large"})
+    public String corpus;
+
+    private File mDir;
+    private AssetCorpus mCorpus;
+    private File mArscFile;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        mDir = Files.createTempDirectory("arsc-benchmark").toFile();
+        mCorpus = AssetCorpus.generate(AssetCorpus.Spec.forName(corpus), new File(mDir, "source"));
+        mArscFile = new File(mDir, "work/" + Aapt.RESOURCES_ARSC);
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() throws IOException {
+        AssetCorpus.copy(mCorpus.getArscFile(), mArscFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        AssetCorpus.deleteDir(mDir);
+    }
+
+    @Benchmark
+    public Object slice() {
+        return new ArscEditor(mArscFile, mCorpus.getToolsRevision()).slice(AssetCorpus.PLUGIN_PACKAGE_ID,
+            mCorpus.getIdMaps(), mCorpus.getLibRefTable(), mCorpus.getRetainedTypes());
+    }
+
+    @Benchmark
+    public Object reset() {
+        return new ArscEditor(mArscFile, mCorpus.getToolsRevision()).reset(AssetCorpus.PLUGIN_PACKAGE_ID,
+            mCorpus.getIdMaps());
+    }
+}
@@ -0,0 +1,842 @@
+package com.didi.virtualapk.aapt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generator of synthetic aapt outputs: a resources.arsc and binary xml files under res/, laid out
+ * as aapt writes them, together with the retained types and id map a plugin build passes to
+ * {@link ArscEditor#slice} and {@link AXmlEditor#setPackageId}.
+ *
+ * The bytes only depend on the {@link Spec}, so a spec always generates the same corpus.
+ */
+public final class AssetCorpus {
+
+    public static final int HOST_PACKAGE_ID = 0x7f;
+    public static final int PLUGIN_PACKAGE_ID = 0x6f;
+    public static final String PACKAGE_NAME = "com.didi.virtualapk.demo";
+
+    public static final String STRING_POOL_FILE = "strings.chunk";
+
+    private static final String[] TYPE_NAMES = {
+        "attr", "id", "style", "string", "layout", "drawable", "color", "dimen",
+        "array", "integer", "bool", "xml", "anim", "menu", "raw", "mipmap",
+    };
+
+    private static final int[] ANDROID_ATTRS = {
+        0x010100d0, // id
+        0x010100f4, // layout_width
+        0x010100f5, // layout_height
+        0x010100d4, // background
+        0x0101014f, // text
+        0x01010098, // textColor
+        0x01010119, // src
+        0x010100c4, // orientation
+    };
+    private static final String[] ANDROID_ATTR_NAMES = {
+        "id", "layout_width", "layout_height", "background", "text", "textColor", "src", "orientation",
+    };
+
+    private static final int ATTR_TYPE = 0x01000000;
+    private static final int ATTR_MIN = 0x02000000;
+    private static final int ANDROID_THEME = 0x01030005;
+
+    private static final int TYPE_REFERENCE = 0x01;
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_DIMENSION = 0x05;
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int TYPE_INT_BOOLEAN = 0x12;
+    private static final int TYPE_INT_COLOR_ARGB8 = 0x1c;
+
+    private static final int CONFIG_DENSITY = 0x0100;
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final String APP_NS = "http://schemas.android.com/apk/res-auto";
+
+    /**
+     * Shape of a corpus. The presets are named so that benchmarks and golden checks can refer to them.
+     */
+    public static final class Spec {
+        public String name;
+        public int typeCount = TYPE_NAMES.length;
+        public int entriesPerType = 24;
+        public int configCount = 3;
+        public int bagSize = 4;
+        public int styledStringCount = 4;
+        /** percentage of the entries of a type kept by the plugin, every 5th type except attr is dropped */
+        public int retainPercent = 50;
+        public int xmlCount = 4;
+        public int elementsPerXml = 12;
+        /** encoding of the global string pool */
+        public boolean utf8 = true;
+        /** major version of the build tools, 24+ writes 56 bytes ResTable_config */
+        public int toolsMajor = 23;
+        public long seed = 1;
+
+        public Spec(String name) {
+            this.name = name;
+        }
+
+        public int getEntryCount() {
+            return typeCount * entriesPerType;
+        }
+
+        public int getConfigSize() {
+            return toolsMajor >= 24 ? 56 : 52;
+        }
+
+        public static Spec forName(String name) {
+            Spec spec = new Spec(name);
+            if ("golden".equals(name)) {
+                return spec;
+            } else if ("golden-utf16".equals(name)) {
+                spec.utf8 = false;
+                spec.toolsMajor = 26;
+                spec.seed = 2;
+                return spec;
+            } else if ("medium".equals(name)) {
+                spec.entriesPerType = 320;
+                spec.configCount = 4;
+                spec.styledStringCount = 32;
+                spec.xmlCount = 64;
+                spec.elementsPerXml = 32;
+                return spec;
+            } else if ("large".equals(name)) {
+                spec.entriesPerType = 3200;
+                spec.configCount = 8;
+                spec.styledStringCount = 256;
+                spec.xmlCount = 1024;
+                spec.elementsPerXml = 48;
+                return spec;
+            }
+            throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+
+        @Override
+        public String toString() {
+            return name + "[types=" + typeCount + ", entries=" + getEntryCount() + ", configs=" + configCount
+                + ", xml=" + xmlCount + "x" + elementsPerXml + (utf8 ? ", utf8" : ", utf16") + "]";
+        }
+    }
+
+    private final Spec mSpec;
+    private final File mDir;
+    private final Random mRandom;
+
+    private final List<String> mStrings = new ArrayList<>();
+    private final List<int[]> mStyles = new ArrayList<>();
+    private final List<String> mKeys = new ArrayList<>();
+    private final List<Map<String, Object>> mRetainedTypes = new ArrayList<>();
+    private final Map<Integer, Integer> mIdMaps = new HashMap<>();
+    private final List<File> mXmlFiles = new ArrayList<>();
+
+    private AssetCorpus(Spec spec, File dir) {
+        mSpec = spec;
+        mDir = dir;
+        mRandom = new Random(spec.seed);
+    }
+
+    /**
+     * Generate the corpus into the directory, it's laid out as the unzipped resources of an apk.
+     */
+    public static AssetCorpus generate(Spec spec, File dir) throws IOException {
+        AssetCorpus corpus = new AssetCorpus(spec, dir);
+        corpus.generate();
+        return corpus;
+    }
+
+    public Spec getSpec() {
+        return mSpec;
+    }
+
+    public File getDir() {
+        return mDir;
+    }
+
+    public File getArscFile() {
+        return new File(mDir, Aapt.RESOURCES_ARSC);
+    }
+
+    /**
+     * @return a file holding the global string pool chunk of resources.arsc only
+     */
+    public File getStringPoolFile() {
+        return new File(mDir, STRING_POOL_FILE);
+    }
+
+    public List<File> getXmlFiles() {
+        return Collections.unmodifiableList(mXmlFiles);
+    }
+
+    /**
+     * @return the types kept by the plugin, in the structure of ProcessResourcesHooker#convertResourcesForAapt
+     */
+    public List<Map<String, Object>> getRetainedTypes() {
+        return mRetainedTypes;
+    }
+
+    /**
+     * @return map of the original resource ids to the plugin or host ones
+     */
+    public Map<Integer, Integer> getIdMaps() {
+        return mIdMaps;
+    }
+
+    public Map<Integer, String> getLibRefTable() {
+        Map<Integer, String> table = new HashMap<>();
+        table.put(PLUGIN_PACKAGE_ID, PACKAGE_NAME);
+        return table;
+    }
+
+    /**
+     * @return the build tools revision, only the major version is read by {@link ArscEditor}
+     */
+    public Object getToolsRevision() {
+        return Collections.singletonMap("major", mSpec.toolsMajor);
+    }
+
+    /** char16_t[128] of ResTable_package.name */
+    private static byte[] getPackageName() {
+        byte[] name = new byte[256];
+        for (int i = 0; i < PACKAGE_NAME.length(); i++) {
+            name[i * 2] = (byte) PACKAGE_NAME.charAt(i);
+        }
+        return name;
+    }
+
+    private static String getTypeName(int type) {
+        String name = TYPE_NAMES[type % TYPE_NAMES.length];
+        return type < TYPE_NAMES.length ? name : name + (type / TYPE_NAMES.length);
+    }
+
+    private static int makeId(int pp, int type, int entry) {
+        return (pp << 24) | ((type + 1) << 16) | entry;
+    }
+
+    private boolean isRetained(int type, int entry) {
+        if (type == 0) {
+            return entry == 0 || mix(type, entry) % 100 < mSpec.retainPercent;
+        }
+        if (type % 5 == 4) {
+            return false;
+        }
+        return entry == 0 || mix(type, entry) % 100 < mSpec.retainPercent;
+    }
+
+    private static int mix(int type, int entry) {
+        int h = type * 0x9E3779B1 + entry * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 13;
+        return h & 0x7fffffff;
+    }
+
+    /** Whether the entry has a value in the config, the default config has all entries. */
+    private boolean isInConfig(int type, int entry, int config) {
+        if (config == 0) {
+            return true;
+        }
+        String name = getTypeName(type);
+        if (name.startsWith("attr") || name.startsWith("id") || name.startsWith("style")) {
+            return false;
+        }
+        return (entry + config) % (config + 1) == 0;
+    }
+
+    private void generate() throws IOException {
+        mDir.mkdirs();
+
+        // styled strings come first in the pool, their spans refer to the tag names following them
+        for (int i = 0; i < mSpec.styledStringCount; i++) {
+            mStrings.add("Styled text " + i);
+        }
+        int bold = addString("b");
+        int italic = addString("i");
+        for (int i = 0; i < mSpec.styledStringCount; i++) {
+            mStyles.add(i % 2 == 0 ? new int[] {bold, 0, 5} : new int[] {bold, 0, 5, italic, 7, 10});
+        }
+
+        collectRetainedTypes();
+
+        LeBuffer types = new LeBuffer();
+        for (int t = 0; t < mSpec.typeCount; t++) {
+            writeType(types, t);
+        }
+
+        LeBuffer out = new LeBuffer();
+        out.writeShort(ResType.RES_TABLE_TYPE);
+        out.writeShort(12);
+        out.writeInt(0); // size
+        out.writeInt(1); // packageCount
+        byte[] globalPool = makeStringPool(mStrings, mStyles, mSpec.utf8);
+        out.writeBytes(globalPool);
+
+        List<String> typeNames = new ArrayList<>();
+        for (int t = 0; t < mSpec.typeCount; t++) {
+            typeNames.add(getTypeName(t));
+        }
+        // the key names are compared as utf-8 by ArscEditor#slice
+        byte[] typePool = makeStringPool(typeNames, Collections.<int[]>emptyList(), true);
+        byte[] keyPool = makeStringPool(mKeys, Collections.<int[]>emptyList(), true);
+
+        int packageStart = out.size();
+        out.writeShort(ResType.RES_TABLE_PACKAGE_TYPE);
+        out.writeShort(288);
+        out.writeInt(0); // size
+        out.writeInt(HOST_PACKAGE_ID);
+        out.writeBytes(getPackageName());
+        out.writeInt(288); // typeStrings
+        out.writeInt(typeNames.size()); // lastPublicType
+        out.writeInt(288 + typePool.length); // keyStrings
+        out.writeInt(mKeys.size()); // lastPublicKey
+        out.writeInt(0); // typeIdOffset
+        out.writeBytes(typePool);
+        out.writeBytes(keyPool);
+        out.writeBytes(types.toByteArray());
+        out.putInt(packageStart + 4, out.size() - packageStart);
+        out.putInt(4, out.size());
+
+        write(getArscFile(), out.toByteArray());
+        write(getStringPoolFile(), globalPool);
+
+        File layoutDir = new File(mDir, "res/layout");
+        layoutDir.mkdirs();
+        for (int i = 0; i < mSpec.xmlCount; i++) {
+            File file = new File(layoutDir, "layout_" + i + ".xml");
+            write(file, makeXml(i));
+            mXmlFiles.add(file);
+        }
+    }
+
+    private int addString(String s) {
+        mStrings.add(s);
+        return mStrings.size() - 1;
+    }
+
+    private void collectRetainedTypes() {
+        int newType = 0;
+        for (int t = 0; t < mSpec.typeCount; t++) {
+            List<Map<String, Object>> entries = new ArrayList<>();
+            for (int e = 0; e < mSpec.entriesPerType; e++) {
+                int oldId = makeId(HOST_PACKAGE_ID, t, e);
+                if (!isRetained(t, e)) {
+                    // resources in the host keep their ids
+                    mIdMaps.put(oldId, makeId(HOST_PACKAGE_ID, t, e + 0x100));
+                    continue;
+                }
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("name", getKeyName(t, e).replace('.', '_'));
+                entry.put("id", e);
+                entries.add(entry);
+                mIdMaps.put(oldId, makeId(PLUGIN_PACKAGE_ID, newType, entries.size() - 1));
+            }
+            if (entries.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> type = new LinkedHashMap<>();
+            type.put("type", "int");
+            type.put("name", getTypeName(t));
+            type.put("id", t + 1);
+            type.put("entries", entries);
+            mRetainedTypes.add(type);
+            newType++;
+        }
+    }
+
+    private String getKeyName(int type, int entry) {
+        String name = getTypeName(type);
+        return name.startsWith("style") ? "Theme.Demo." + name + entry : name + "_" + entry;
+    }
+
+    /** Write ResTable_typeSpec and a ResTable_type for each config */
+    private void writeType(LeBuffer out, int type) {
+        int entryCount = mSpec.entriesPerType;
+        int[] keys = new int[entryCount];
+        for (int e = 0; e < entryCount; e++) {
+            mKeys.add(getKeyName(type, e));
+            keys[e] = mKeys.size() - 1;
+        }
+
+        out.writeShort(ResType.RES_TABLE_TYPE_SPEC_TYPE);
+        out.writeShort(16);
+        out.writeInt(16 + entryCount * 4);
+        out.writeByte(type + 1);
+        out.writeByte(0);
+        out.writeShort(0);
+        out.writeInt(entryCount);
+        boolean[] usedConfigs = new boolean[mSpec.configCount];
+        usedConfigs[0] = true;
+        for (int e = 0; e < entryCount; e++) {
+            boolean configured = false;
+            for (int c = 1; c < mSpec.configCount; c++) {
+                if (isInConfig(type, e, c)) {
+                    usedConfigs[c] = configured = true;
+                }
+            }
+            out.writeInt(configured ? CONFIG_DENSITY : 0);
+        }
+
+        int configSize = mSpec.getConfigSize();
+        for (int c = 0; c < mSpec.configCount; c++) {
+            if (!usedConfigs[c]) {
+                continue;
+            }
+            int start = out.size();
+            int headerSize = 20 + configSize;
+            out.writeShort(ResType.RES_TABLE_TYPE_TYPE);
+            out.writeShort(headerSize);
+            out.writeInt(0); // size
+            out.writeByte(type + 1);
+            out.writeByte(0);
+            out.writeShort(0);
+            out.writeInt(entryCount);
+            out.writeInt(headerSize + entryCount * 4);
+            writeConfig(out, c, configSize);
+
+            LeBuffer entries = new LeBuffer();
+            for (int e = 0; e < entryCount; e++) {
+                if (!isInConfig(type, e, c)) {
+                    out.writeInt(ResTableType.NO_ENTRY);
+                    continue;
+                }
+                out.writeInt(entries.size());
+                writeEntry(entries, type, e, c, keys[e]);
+            }
+            out.writeBytes(entries.toByteArray());
+            out.putInt(start + 4, out.size() - start);
+        }
+    }
+
+    private static void writeConfig(LeBuffer out, int config, int configSize) {
+        byte[] bytes = new byte[configSize];
+        LeBuffer b = new LeBuffer();
+        b.writeInt(configSize);
+        b.writeInt(0); // imsi
+        b.writeInt(0); // locale
+        b.writeByte(0); // orientation
+        b.writeByte(0); // touchscreen
+        b.writeShort(config == 0 ? 0 : 120 + 40 * config); // density
+        byte[] head = b.toByteArray();
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        out.writeBytes(bytes);
+    }
+
+    /** Write ResTable_entry + Res_value or ResTable_map_entry + ResTable_map x N */
+    private void writeEntry(LeBuffer out, int type, int entry, int config, int key) {
+        String name = getTypeName(type);
+        if (name.startsWith("attr")) {
+            writeBagHeader(out, key, 0, 1);
+            writeMap(out, ATTR_TYPE, TYPE_INT_DEC, 1 << (entry % 8));
+            return;
+        }
+        if (name.startsWith("style")) {
+            int parent = entry % 4 == 0 ? ANDROID_THEME : makeId(HOST_PACKAGE_ID, type, entry - 1);
+            writeBagHeader(out, key, parent, mSpec.bagSize);
+            for (int i = 0; i < mSpec.bagSize; i++) {
+                int attr = i % 2 == 0
+                    ? makeId(HOST_PACKAGE_ID, 0, mRandom.nextInt(mSpec.entriesPerType))
+                    : ANDROID_ATTRS[mRandom.nextInt(ANDROID_ATTRS.length)];
+                switch (i % 3) {
+                    case 0:
+                        writeMap(out, attr, TYPE_REFERENCE, randomReference());
+                        break;
+                    case 1:
+                        writeMap(out, attr, TYPE_STRING, addString("style " + entry + " item " + i));
+                        break;
+                    default:
+                        writeMap(out, attr, TYPE_INT_DEC, mRandom.nextInt(1000));
+                        break;
+                }
+            }
+            return;
+        }
+        if (name.startsWith("array")) {
+            writeBagHeader(out, key, 0, mSpec.bagSize);
+            for (int i = 0; i < mSpec.bagSize; i++) {
+                writeMap(out, ATTR_MIN + i, TYPE_STRING, addString("array " + entry + " item " + i));
+            }
+            return;
+        }
+
+        int dataType;
+        int data;
+        if (name.startsWith("id")) {
+            dataType = TYPE_INT_BOOLEAN;
+            data = 0;
+        } else if (name.startsWith("string")) {
+            dataType = TYPE_STRING;
+            data = entry < mSpec.styledStringCount ? entry : addString("String " + entry + " in config " + config);
+        } else if (name.startsWith("drawable") || name.startsWith("mipmap")) {
+            dataType = TYPE_STRING;
+            String dir = config == 0 ? name : name + "-" + (120 + 40 * config) + "dpi";
+            data = addString("res/" + dir + "/" + getKeyName(type, entry) + ".png");
+        } else if (name.startsWith("layout") || name.startsWith("xml") || name.startsWith("anim")
+                || name.startsWith("menu") || name.startsWith("raw")) {
+            dataType = TYPE_STRING;
+            String dir = config == 0 ? name : name + "-v" + (20 + config);
+            data = addString("res/" + dir + "/" + getKeyName(type, entry) + ".xml");
+        } else if (name.startsWith("color")) {
+            if (entry % 3 == 2) {
+                dataType = TYPE_REFERENCE;
+                data = makeId(HOST_PACKAGE_ID, type, entry - 1);
+            } else {
+                dataType = TYPE_INT_COLOR_ARGB8;
+                data = 0xff000000 | mRandom.nextInt(0x1000000);
+            }
+        } else if (name.startsWith("dimen")) {
+            dataType = TYPE_DIMENSION;
+            data = (entry << 8) | 1;
+        } else if (name.startsWith("bool")) {
+            dataType = TYPE_INT_BOOLEAN;
+            data = entry % 2 == 0 ? 0 : -1;
+        } else {
+            dataType = TYPE_INT_DEC;
+            data = entry;
+        }
+        out.writeShort(8);
+        out.writeShort(0);
+        out.writeInt(key);
+        out.writeShort(8);
+        out.writeByte(0);
+        out.writeByte(dataType);
+        out.writeInt(data);
+    }
+
+    private static void writeBagHeader(LeBuffer out, int key, int parent, int count) {
+        out.writeShort(16);
+        out.writeShort(ResTableEntry.FLAG_COMPLEX);
+        out.writeInt(key);
+        out.writeInt(parent);
+        out.writeInt(count);
+    }
+
+    private static void writeMap(LeBuffer out, int name, int dataType, int data) {
+        out.writeInt(name);
+        out.writeShort(8);
+        out.writeByte(0);
+        out.writeByte(dataType);
+        out.writeInt(data);
+    }
+
+    /** A reference to any resource of the package, except attr and id */
+    private int randomReference() {
+        int type = 2 + mRandom.nextInt(mSpec.typeCount - 2);
+        return makeId(HOST_PACKAGE_ID, type, mRandom.nextInt(mSpec.entriesPerType));
+    }
+
+    /**
+     * Make a layout with a root element and flat children. The attribute names are the first strings
+     * of the pool as aapt orders them, mapped by the resource map chunk.
+     */
+    private byte[] makeXml(int index) {
+        int customAttrCount = Math.min(4, mSpec.entriesPerType);
+        List<String> strings = new ArrayList<>();
+        int[] resourceMap = new int[ANDROID_ATTRS.length + customAttrCount];
+        for (int i = 0; i < ANDROID_ATTRS.length; i++) {
+            strings.add(ANDROID_ATTR_NAMES[i]);
+            resourceMap[i] = ANDROID_ATTRS[i];
+        }
+        for (int i = 0; i < customAttrCount; i++) {
+            strings.add(getKeyName(0, i));
+            resourceMap[ANDROID_ATTRS.length + i] = makeId(HOST_PACKAGE_ID, 0, i);
+        }
+        int androidPrefix = strings.size();
+        strings.add("android");
+        int androidUri = strings.size();
+        strings.add(ANDROID_NS);
+        int appPrefix = strings.size();
+        strings.add("app");
+        int appUri = strings.size();
+        strings.add(APP_NS);
+        int rootName = strings.size();
+        strings.add("LinearLayout");
+        int childName = strings.size();
+        strings.add("TextView");
+        int firstText = strings.size();
+        for (int i = 0; i < mSpec.elementsPerXml; i++) {
+            strings.add("Text " + i + " of layout " + index);
+        }
+
+        LeBuffer out = new LeBuffer();
+        out.writeShort(ResType.RES_XML_TYPE);
+        out.writeShort(8);
+        out.writeInt(0); // size
+        out.writeBytes(makeStringPool(strings, Collections.<int[]>emptyList(), false));
+
+        out.writeShort(ResType.RES_XML_RESOURCE_MAP_TYPE);
+        out.writeShort(8);
+        out.writeInt(8 + resourceMap.length * 4);
+        for (int id : resourceMap) {
+            out.writeInt(id);
+        }
+
+        int line = 1;
+        writeNamespace(out, ResType.RES_XML_START_NAMESPACE_TYPE, line, androidPrefix, androidUri);
+        writeNamespace(out, ResType.RES_XML_START_NAMESPACE_TYPE, line, appPrefix, appUri);
+        for (int i = 0; i < mSpec.elementsPerXml; i++) {
+            boolean root = i == 0;
+            List<int[]> attrs = new ArrayList<>();
+            // {ns, name, rawValue, dataType, data}
+            attrs.add(new int[] {androidUri, 0, -1, TYPE_REFERENCE, makeId(HOST_PACKAGE_ID, 1, i % mSpec.entriesPerType)});
+            attrs.add(new int[] {androidUri, 1, -1, TYPE_INT_DEC, -1});
+            attrs.add(new int[] {androidUri, 2, -1, TYPE_INT_DEC, -2});
+            if (root) {
+                attrs.add(new int[] {androidUri, 7, -1, TYPE_INT_DEC, 1});
+            } else {
+                attrs.add(new int[] {androidUri, 3, -1, TYPE_REFERENCE, randomReference()});
+                attrs.add(new int[] {androidUri, 4, firstText + i, TYPE_STRING, firstText + i});
+                attrs.add(new int[] {androidUri, 5, -1, TYPE_REFERENCE, randomReference()});
+                if (customAttrCount > 0) {
+                    int attr = i % customAttrCount;
+                    attrs.add(new int[] {appUri, ANDROID_ATTRS.length + attr, -1, TYPE_REFERENCE, randomReference()});
+                }
+            }
+            writeStartElement(out, ++line, root ? rootName : childName, attrs);
+            if (!root) {
+                writeEndElement(out, line, childName);
+            }
+        }
+        writeEndElement(out, ++line, rootName);
+        writeNamespace(out, ResType.RES_XML_END_NAMESPACE_TYPE, line, appPrefix, appUri);
+        writeNamespace(out, ResType.RES_XML_END_NAMESPACE_TYPE, line, androidPrefix, androidUri);
+        out.putInt(4, out.size());
+        return out.toByteArray();
+    }
+
+    private static void writeNamespace(LeBuffer out, int type, int line, int prefix, int uri) {
+        out.writeShort(type);
+        out.writeShort(16);
+        out.writeInt(24);
+        out.writeInt(line);
+        out.writeInt(-1); // comment
+        out.writeInt(prefix);
+        out.writeInt(uri);
+    }
+
+    private static void writeStartElement(LeBuffer out, int line, int name, List<int[]> attrs) {
+        out.writeShort(ResType.RES_XML_START_ELEMENT_TYPE);
+        out.writeShort(16);
+        out.writeInt(36 + attrs.size() * 20);
+        out.writeInt(line);
+        out.writeInt(-1); // comment
+        out.writeInt(-1); // ns
+        out.writeInt(name);
+        out.writeShort(20); // attributeStart
+        out.writeShort(20); // attributeSize
+        out.writeShort(attrs.size());
+        out.writeShort(0); // idIndex
+        out.writeShort(0); // classIndex
+        out.writeShort(0); // styleIndex
+        for (int[] attr : attrs) {
+            out.writeInt(attr[0]);
+            out.writeInt(attr[1]);
+            out.writeInt(attr[2]);
+            out.writeShort(8);
+            out.writeByte(0);
+            out.writeByte(attr[3]);
+            out.writeInt(attr[4]);
+        }
+    }
+
+    private static void writeEndElement(LeBuffer out, int line, int name) {
+        out.writeShort(ResType.RES_XML_END_ELEMENT_TYPE);
+        out.writeShort(16);
+        out.writeInt(24);
+        out.writeInt(line);
+        out.writeInt(-1); // comment
+        out.writeInt(-1); // ns
+        out.writeInt(name);
+    }
+
+    /**
+     * Make ResStringPool_header and the following data.
+     *
+     * @param styles spans of the first strings, as {name, firstChar, lastChar} x N
+     */
+    static byte[] makeStringPool(List<String> strings, List<int[]> styles, boolean utf8) {
+        LeBuffer data = new LeBuffer();
+        int[] offsets = new int[strings.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = data.size();
+            String s = strings.get(i);
+            if (utf8) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeUtf8Length(data, s.length());
+                writeUtf8Length(data, bytes.length);
+                data.writeBytes(bytes);
+                data.writeByte(0);
+            } else {
+                int len = s.length();
+                if (len > 0x7fff) {
+                    data.writeShort(0x8000 | (len >>> 16));
+                }
+                data.writeShort(len);
+                for (int j = 0; j < len; j++) {
+                    data.writeShort(s.charAt(j));
+                }
+                data.writeShort(0);
+            }
+        }
+        data.align4();
+
+        LeBuffer styleData = new LeBuffer();
+        int[] styleOffsets = new int[styles.size()];
+        for (int i = 0; i < styleOffsets.length; i++) {
+            styleOffsets[i] = styleData.size();
+            for (int span : styles.get(i)) {
+                styleData.writeInt(span);
+            }
+            styleData.writeInt(ResStringPoolSpan.END);
+        }
+        if (!styles.isEmpty()) {
+            styleData.writeBytes(ResStringPoolSpan.END_SPAN);
+        }
+
+        int headerSize = 28;
+        int stringsStart = headerSize + (offsets.length + styleOffsets.length) * 4;
+        int stylesStart = styles.isEmpty() ? 0 : stringsStart + data.size();
+        LeBuffer out = new LeBuffer();
+        out.writeShort(ResType.RES_STRING_POOL_TYPE);
+        out.writeShort(headerSize);
+        out.writeInt(stringsStart + data.size() + styleData.size());
+        out.writeInt(offsets.length);
+        out.writeInt(styleOffsets.length);
+        out.writeInt(utf8 ? ResStringFlag.UTF8_FLAG : 0);
+        out.writeInt(stringsStart);
+        out.writeInt(stylesStart);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int offset : styleOffsets) {
+            out.writeInt(offset);
+        }
+        out.writeBytes(data.toByteArray());
+        out.writeBytes(styleData.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeUtf8Length(LeBuffer out, int len) {
+        if (len > 0x7f) {
+            out.writeByte(0x80 | (len >>> 8));
+        }
+        out.writeByte(len & 0xff);
+    }
+
+    /** Copy the file, the parent dirs are created */
+    static File copy(File from, File to) throws IOException {
+        to.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(to);
+        try {
+            out.write(readBytes(from));
+        } finally {
+            out.close();
+        }
+        return to;
+    }
+
+    static byte[] readBytes(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                int read = in.read(bytes, n, bytes.length - n);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                n += read;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Growable little endian buffer */
+    static final class LeBuffer {
+        private byte[] mData = new byte[256];
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        void writeByte(int v) {
+            ensure(1);
+            mData[mSize++] = (byte) v;
+        }
+
+        void writeShort(int v) {
+            ensure(2);
+            mData[mSize++] = (byte) v;
+            mData[mSize++] = (byte) (v >> 8);
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            putInt(mSize, v);
+            mSize += 4;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mData, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        void putInt(int pos, int v) {
+            mData[pos] = (byte) v;
+            mData[pos + 1] = (byte) (v >> 8);
+            mData[pos + 2] = (byte) (v >> 16);
+            mData[pos + 3] = (byte) (v >> 24);
+        }
+
+        void align4() {
+            while ((mSize & 3) != 0) {
+                writeByte(0);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mData, mSize);
+        }
+
+        private void ensure(int n) {
+            if (mSize + n > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mSize + n));
+            }
+        }
+    }
+}
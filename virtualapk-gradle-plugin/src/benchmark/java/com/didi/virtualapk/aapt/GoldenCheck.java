@@ -0,0 +1,188 @@
+package com.didi.virtualapk.aapt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Check the outputs of the aapt editors on the golden corpora against the recorded digests,
+ * so that a change of the editors can be verified byte for byte.
+ *
+ * Usage: GoldenCheck &lt;golden file&gt; &lt;work dir&gt; [--update]
+ *
+ * The outputs are kept in the work dir for diffing, --update records the current outputs as the goldens.
+ */
+public class GoldenCheck {
+
+    static final String[] CORPORA = {"golden", "golden-utf16"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: GoldenCheck <golden file> <work dir> [--update]");
+            System.exit(2);
+        }
+        File goldenFile = new File(args[0]);
+        File workDir = new File(args[1]);
+        boolean update = args.length > 2 && "--update".equals(args[2]);
+
+        Map<String, String> actual = new LinkedHashMap<>();
+        for (String name : CORPORA) {
+            run(AssetCorpus.Spec.forName(name), new File(workDir, name), actual);
+        }
+
+        if (update) {
+            writeGolden(goldenFile, actual);
+            System.out.println("Recorded " + actual.size() + " goldens to " + goldenFile);
+            return;
+        }
+
+        Map<String, String> expected = readGolden(goldenFile);
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, String> entry : actual.entrySet()) {
+            String golden = expected.get(entry.getKey());
+            if (!entry.getValue().equals(golden)) {
+                failures.add(entry.getKey() + ": expected " + golden + ", got " + entry.getValue());
+            }
+        }
+        for (String key : expected.keySet()) {
+            if (!actual.containsKey(key)) {
+                failures.add(key + ": missing");
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                System.err.println(failure);
+            }
+            System.err.println("Outputs are kept in " + workDir);
+            System.exit(1);
+        }
+        System.out.println("All " + actual.size() + " goldens matched");
+    }
+
+    static void run(AssetCorpus.Spec spec, File dir, Map<String, String> out) throws Exception {
+        AssetCorpus.deleteDir(dir);
+        AssetCorpus corpus = AssetCorpus.generate(spec, new File(dir, "source"));
+        List<File> sources = new ArrayList<>(corpus.getXmlFiles());
+        sources.add(0, corpus.getArscFile());
+        out.put(spec.name + ".source", digest(sources));
+
+        // ArscEditor#slice
+        File sliced = AssetCorpus.copy(corpus.getArscFile(), new File(dir, "slice/" + Aapt.RESOURCES_ARSC));
+        new ArscEditor(sliced, corpus.getToolsRevision()).slice(AssetCorpus.PLUGIN_PACKAGE_ID,
+            corpus.getIdMaps(), corpus.getLibRefTable(), corpus.getRetainedTypes());
+        out.put(spec.name + ".slice", digest(Arrays.asList(sliced)));
+
+        // ArscEditor#reset
+        File reset = AssetCorpus.copy(corpus.getArscFile(), new File(dir, "reset/" + Aapt.RESOURCES_ARSC));
+        new ArscEditor(reset, corpus.getToolsRevision()).reset(AssetCorpus.PLUGIN_PACKAGE_ID, corpus.getIdMaps());
+        out.put(spec.name + ".reset", digest(Arrays.asList(reset)));
+
+        // AXmlEditor#setPackageId
+        List<File> xmlFiles = new ArrayList<>();
+        for (File file : corpus.getXmlFiles()) {
+            File xml = AssetCorpus.copy(file, new File(dir, "xml/" + file.getName()));
+            new AXmlEditor(xml).setPackageId(AssetCorpus.PLUGIN_PACKAGE_ID, corpus.getIdMaps());
+            xmlFiles.add(xml);
+        }
+        out.put(spec.name + ".setPackageId", digest(xmlFiles));
+
+        // AssetEditor#readStringPool and #writeStringPool, the copy must be identical to the source
+        File copied = new File(dir, "strings/copy.chunk");
+        copied.getParentFile().mkdirs();
+        AssetEditor reader = new AssetEditor(corpus.getStringPoolFile());
+        Object pool = reader.readStringPool();
+        reader.close();
+        AssetEditor writer = new AssetEditor(copied);
+        writer.writeStringPool(pool);
+        writer.close();
+        if (!Arrays.equals(AssetCorpus.readBytes(corpus.getStringPoolFile()), AssetCorpus.readBytes(copied))) {
+            throw new AssertionError(spec.name + ": string pool is changed by read & write, see " + copied);
+        }
+
+        // AssetEditor#filterStringPool, keep every third string
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < spec.styledStringCount; i++) {
+            ids.add(i);
+        }
+        int count = (Integer) ((Map<?, ?>) pool).get("stringCount");
+        for (int i = spec.styledStringCount; i < count; i += 3) {
+            ids.add(i);
+        }
+        AssetEditor.filterStringPool(pool, ids);
+        File filtered = new File(dir, "strings/filtered.chunk");
+        writer = new AssetEditor(filtered);
+        writer.writeStringPool(pool);
+        writer.close();
+        out.put(spec.name + ".filterStringPool", digest(Arrays.asList(filtered)));
+    }
+
+    /**
+     * @return sha-1 and total length of the files
+     */
+    static String digest(List<File> files) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        long length = 0;
+        for (File file : files) {
+            byte[] bytes = AssetCorpus.readBytes(file);
+            md.update(bytes);
+            length += bytes.length;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.append(' ').append(length).toString();
+    }
+
+    private static Map<String, String> readGolden(File file) throws IOException {
+        Map<String, String> golden = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int index = line.indexOf('=');
+                golden.put(line.substring(0, index), line.substring(index + 1));
+            }
+        } finally {
+            reader.close();
+        }
+        return golden;
+    }
+
+    private static void writeGolden(File file, Map<String, String> golden) throws IOException {
+        file.getParentFile().mkdirs();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            writer.println("# Digests of the aapt editor outputs on the golden corpora: <corpus>.<operation>=<sha-1> <length>");
+            writer.println("# Generated by GoldenCheck --update, see virtualapk-gradle-plugin/build.gradle");
+            for (Map.Entry<String, String> entry : golden.entrySet()) {
+                writer.println(entry.getKey() + "=" + entry.getValue());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
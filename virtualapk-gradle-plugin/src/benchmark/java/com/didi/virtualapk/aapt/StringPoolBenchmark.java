@@ -0,0 +1,76 @@
+package com.didi.virtualapk.aapt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AssetEditor#readStringPool} and {@link AssetEditor#writeStringPool} on the global string pool
+ * of a generated resources.arsc.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StringPoolBenchmark {
+
+    @Param({"medium", "large"})
+    public String corpus;
+
+    private File mDir;
+    private File mPoolFile;
+    private File mOutFile;
+    private Object mPool;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        mDir = Files.createTempDirectory("string-pool-benchmark").toFile();
+        AssetCorpus assets = AssetCorpus.generate(AssetCorpus.Spec.forName(corpus), new File(mDir, "source"));
+        mPoolFile = assets.getStringPoolFile();
+        mOutFile = new File(mDir, "out.chunk");
+        mPool = read();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        AssetCorpus.deleteDir(mDir);
+    }
+
+    @Benchmark
+    public Object read() {
+        AssetEditor editor = new AssetEditor(mPoolFile);
+        try {
+            return editor.readStringPool();
+        } finally {
+            editor.close();
+        }
+    }
+
+    @Benchmark
+    public void write() {
+        AssetEditor editor = new AssetEditor(mOutFile);
+        try {
+            editor.seek(0);
+            editor.writeStringPool(mPool);
+        } finally {
+            editor.close();
+        }
+    }
+}
@@ -87,9 +87,14 @@ public class AXmlEditor extends AssetEditor {
         return false
     }
 
-    def setPackageId(final int pp, final Map idMaps) {
+    /**
+     * Reset package ids of the resource map and attributes
+     * @param idMaps Map or IntIntMap of the library resource ids, shared read-only when rewriting in parallel
+     */
+    def setPackageId(final int pp, final idMaps) {
         def xml = readChunkHeader()
         if (xml.type != ResType.RES_XML_TYPE) {
+            close()
             return false
         }
 
@@ -98,7 +103,7 @@ public class AXmlEditor extends AssetEditor {
         return edited
     }
 
-    private def setPackageIdRecursive(final int pp, final Map idMaps, final long size) {
+    private def setPackageIdRecursive(final int pp, final idMaps, final long size) {
         if (tellp() >= size) {
             return
         }
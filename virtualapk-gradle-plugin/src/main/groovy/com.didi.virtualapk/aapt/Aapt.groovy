@@ -7,6 +7,9 @@ import com.google.common.io.Files
 import groovy.io.FileType
 import org.gradle.api.Project
 
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+
 /**
  * Class to expand aapt function
  */
@@ -59,10 +62,23 @@ public class Aapt {
      * @param retainedTypes
      */
     void filterResources(final List<?> retainedTypes, final Set<String> outFilteredResources) {
+        // Index the retained entry names by type name, the first type of a name wins
+        final Map<String, Set<String>> retainedEntries = [:]
+        retainedTypes.each { type ->
+            if (retainedEntries.containsKey(type.name.toString())) return
+
+            final Set<String> entries = new HashSet<>()
+            type.entries.each {
+                entries.add(it.name.toString())
+            }
+            retainedEntries.put(type.name.toString(), entries)
+        }
+
         def resDir = new File(assetDir, 'res')
         resDir.listFiles().each { typeDir ->
-            def type = retainedTypes.find { typeDir.name.startsWith(it.name) }
-            if (type == null) {
+            // e.g. drawable-hdpi-v4 -> drawable
+            def entries = retainedEntries.get(stripName(typeDir.name, '-' as char))
+            if (entries == null) {
                 typeDir.listFiles().each {
                     outFilteredResources.add("res/$typeDir.name/$it.name")
                 }
@@ -75,8 +91,9 @@ public class Aapt {
             def retainedEntryCount = entryFiles.size()
 
             entryFiles.each { entryFile ->
-                def entry = type.entries.find { entryFile.name.startsWith("${it.name}.") }
-                if (entry == null) {
+                // e.g. ic_launcher.9.png -> ic_launcher
+                def name = entryFile.name
+                if (name.indexOf('.') <= 0 || !entries.contains(stripName(name, '.' as char))) {
                     outFilteredResources.add("res/$typeDir.name/$entryFile.name")
                     entryFile.delete()
                     retainedEntryCount--
@@ -89,25 +106,91 @@ public class Aapt {
         }
     }
 
+    /**
+     * @return the name before the first separator
+     */
+    private static String stripName(final String name, final char separator) {
+        int index = name.indexOf((int) separator)
+        return index < 0 ? name : name.substring(0, index)
+    }
+
 
     /**
-     * Reset package id for *.xml
+     * Reset package id for *.xml, the files are rewritten in parallel on a work-stealing pool
      */
     private static void resetAllXmlPackageId(final File dir, final int pp, final Map<?, ?> idMaps, final Set<String> outUpdatedResources) {
         int len = dir.canonicalPath.length() + 1 // bypass '/'
         def isWindows = (File.separator != ENTRY_SEPARATOR)
 
+        final List<File> xmlFiles = []
         dir.eachFileRecurse(FileType.FILES) { file ->
             if ('xml'.equalsIgnoreCase(Files.getFileExtension(file.name))) {
+                xmlFiles.add(file)
+            }
+        }
+
+        // Each task only fills the paths of its own files
+        final String[] paths = outUpdatedResources != null ? new String[xmlFiles.size()] : null
+        final ForkJoinPool pool = new ForkJoinPool()
+        try {
+            pool.invoke(new ResetXmlPackageIdTask(xmlFiles, 0, xmlFiles.size(), pp, IntIntMap.of(idMaps),
+                    paths, len, isWindows))
+        } finally {
+            pool.shutdown()
+        }
+
+        if (paths != null) {
+            outUpdatedResources.addAll(paths)
+        }
+    }
+
+    /**
+     * Reset package id for a range of the xml files, forked in halves until small enough
+     */
+    private static class ResetXmlPackageIdTask extends RecursiveAction {
+
+        private static final int THRESHOLD = 8
+
+        private final List<File> files
+        private final int start
+        private final int end
+        private final int pp
+        private final IntIntMap idMaps
+        private final String[] outPaths
+        private final int prefixLength
+        private final boolean isWindows
+
+        ResetXmlPackageIdTask(List<File> files, int start, int end, int pp, IntIntMap idMaps,
+                              String[] outPaths, int prefixLength, boolean isWindows) {
+            this.files = files
+            this.start = start
+            this.end = end
+            this.pp = pp
+            this.idMaps = idMaps
+            this.outPaths = outPaths
+            this.prefixLength = prefixLength
+            this.isWindows = isWindows
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > THRESHOLD) {
+                int mid = (start + end) >>> 1
+                invokeAll(new ResetXmlPackageIdTask(files, start, mid, pp, idMaps, outPaths, prefixLength, isWindows),
+                        new ResetXmlPackageIdTask(files, mid, end, pp, idMaps, outPaths, prefixLength, isWindows))
+                return
+            }
+
+            for (int i = start; i < end; i++) {
+                final File file = files.get(i)
                 new AXmlEditor(file).setPackageId(pp, idMaps)
 
-                if (outUpdatedResources != null) {
-                    def path = file.canonicalPath.substring(len)
+                if (outPaths != null) {
+                    def path = file.canonicalPath.substring(prefixLength)
                     if (isWindows) { // compat for windows
-                        path = path.replaceAll('\\\\', ENTRY_SEPARATOR)
+                        path = path.replace('\\', '/')
                     }
-
-                    outUpdatedResources.add(path)
+                    outPaths[i] = path
                 }
             }
         }
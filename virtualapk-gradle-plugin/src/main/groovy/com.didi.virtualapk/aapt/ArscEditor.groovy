@@ -1,5 +1,7 @@
 package com.didi.virtualapk.aapt
 
+import groovy.transform.CompileStatic
+
 /**
  * Class to edit aapt-generated resources.arsc file
  */
@@ -26,10 +28,10 @@ public class ArscEditor extends AssetEditor {
 
     private static final boolean DEBUG_NOISY = false // log verbose
 
-    private static def LIBRARY_HEADER_SIZE = 0x0C
-    private static def LIBRARY_ENTRY_SIZE = 260 // packageId(4), packageName(256)
-    private static def LIBRARY_CHUNK_SIZE = 272 // ResTable_lib_header & ResTable_lib_entry
-    private static def TABLE_SIZE_POS = 4
+    private static final int LIBRARY_HEADER_SIZE = 0x0C
+    private static final int LIBRARY_ENTRY_SIZE = 260 // packageId(4), packageName(256)
+    private static final int LIBRARY_CHUNK_SIZE = 272 // ResTable_lib_header & ResTable_lib_entry
+    private static final int TABLE_SIZE_POS = 4
 
     private int mTableConfigSize = 52 // sizeof(ResTable_config)
 
@@ -48,163 +50,182 @@ public class ArscEditor extends AssetEditor {
      * @return
      */
     def slice(int pp, Map idMaps, Map libRefTable, List retainedTypes) {
-        def t = readTable()
-
-        def retainedTypeSpecs = []
-        def retainedStringIds = []
-        def retainedTypeIds = []
-        def retainedKeyIds = []
-        def retainedEntries = []
-        def libPackageIds = []
+        def t = ResTable.read(readAll(), mTableConfigSize)
 
-        if (t.typeList.specs.size() == 0) {
+        if (t.specs.size() == 0) {
             println "\t -- There was no res."
+            close()
             return
         }
 
+        // Flatten the retained types for the typed slicing
+        int n = retainedTypes.size()
+        int[] typeIds = new int[n]
+        int[][] entryIds = new int[n][]
+        String[][] entryNames = new String[n][]
+        retainedTypes.eachWithIndex { type, i ->
+            typeIds[i] = type.id
+            def es = type.entries
+            entryIds[i] = new int[es.size()]
+            entryNames[i] = new String[es.size()]
+            es.eachWithIndex { e, j ->
+                entryIds[i][j] = e.id
+                entryNames[i][j] = e.name?.toString()
+            }
+        }
+
+        sliceTable(t, pp, idMaps, libRefTable, typeIds, entryIds, entryNames)
+
+        // Rewrite
+        def out = new LittleEndianBuffer(t.size)
+        t.write(out)
+        if (out.length() < t.size) {
+            out.setLength(t.size)
+        }
+        writeAll(out)
+
+        if (DEBUG_NOISY) dumpTable(t)
+
+        close()
+    }
+
+    /**
+     * Filter the typed table in place. Retained strings and keys are remapped through
+     * IndexRemap tables, which keeps the slicing linear to the count of entries.
+     */
+    @CompileStatic
+    private void sliceTable(ResTable t, int pp, Map idMaps, Map libRefTable,
+                            int[] typeIds, int[][] entryIds, String[][] entryNames) {
+        List<ResTable.TypeSpec> retainedTypeSpecs = new ArrayList<ResTable.TypeSpec>()
+        IndexRemap retainedStringIds = new IndexRemap(t.stringPool.stringCount)
+        IndexRemap retainedTypeIds = new IndexRemap(t.typeStringPool.stringCount)
+        IndexRemap retainedKeyIds = new IndexRemap(t.keyStringPool.stringCount)
+        List<ResTable.Entry> retainedEntries = new ArrayList<ResTable.Entry>()
+        List<Integer> libPackageIds = new ArrayList<Integer>()
+
         // Ensure there is an `attr' typeSpec
-        if (retainedTypes[0].id == Aapt.ID_NO_ATTR) { // attr type id is always at first
-            def attrSpec = t.typeList.specs[0]
+        if (typeIds.length > 0 && typeIds[0] == Aapt.ID_NO_ATTR) { // attr type id is always at first
+            ResTable.TypeSpec attrSpec = t.specs[0]
             attrSpec.entryCount = 0
-            attrSpec.configs = []
-            attrSpec.flags = []
-            attrSpec.header.size = attrSpec.header.headerSize // id(1) res0(1) res1(2) entryCount(4)
+            attrSpec.configs = new ArrayList<ResTable.Type>()
+            attrSpec.flags = new int[0]
+            attrSpec.size = attrSpec.headerSize // id(1) res0(1) res1(2) entryCount(4)
             retainedTypeIds.add(attrSpec.id - 1)
             retainedTypeSpecs.add(attrSpec)
             println "\t -- There was no attr."
         }
 
-        def index = 0
-        while (index < t.stringPool.styleCount) {
-            retainedStringIds.add(index++)
+        for (int i = 0; i < t.stringPool.styleCount; i++) {
+            retainedStringIds.add(i)
         }
 
         // Create the mapping of type ids
-        LinkedHashMap<Object, Integer> typeIdMap = new LinkedHashMap<>()
-        t.typeList.specs.eachWithIndex { it, i ->
-            typeIdMap.put(it.id.intValue(), i)
+        int[] typeIdMap = new int[256]
+        Arrays.fill(typeIdMap, -1)
+        for (int i = 0; i < t.specs.size(); i++) {
+            typeIdMap[t.specs[i].id] = i
         }
 
+        // Decoded key names, by key index
+        String[] keyNames = new String[t.keyStringPool.stringCount]
+
         // Filter typeSpecs
-        retainedTypes.each {
-            if (it.id == Aapt.ID_DELETED) {
+        for (int k = 0; k < typeIds.length; k++) {
+            if (typeIds[k] == Aapt.ID_DELETED) {
                 // TODO: Add empty entry to default config
                 throw new UnsupportedOperationException("No support deleting resources on lib.* now")
             }
 
-            if (it.id == Aapt.ID_NO_ATTR) {
-                return
+            if (typeIds[k] == Aapt.ID_NO_ATTR) {
+                continue
             }
 
-            def specIndex = typeIdMap.get(it.id)
-            def ts = t.typeList.specs[specIndex]
-            def es = it.entries
-            def newEntryCount = es.size()
-            def d = (ts.entryCount - newEntryCount) * 4
+            int specIndex = typeIds[k] >= 0 && typeIds[k] < typeIdMap.length ? typeIdMap[typeIds[k]] : -1
+            if (specIndex < 0) {
+                throw new Exception("Missing type spec of id ${typeIds[k]}!")
+            }
+            ResTable.TypeSpec ts = t.specs[specIndex]
+            int[] es = entryIds[k]
+            String[] names = entryNames[k]
+            int newEntryCount = es.length
+            int d = (ts.entryCount - newEntryCount) * 4
             ts.entryCount = newEntryCount
             // Filter flags
-            def flags = []
-            es.each { e ->
-                def flag = (e.id == Aapt.ID_DELETED) ? 0 : ts.flags[e.id]
-                flags.add(flag)
+            int[] flags = new int[newEntryCount]
+            for (int j = 0; j < newEntryCount; j++) {
+                int id = es[j]
+                flags[j] = (id >= 0 && id < ts.flags.length) ? ts.flags[id] : 0
             }
             ts.flags = flags
-            ts.header.size -= d
+            ts.size -= d
             ts.id = retainedTypeSpecs.size() + 1
             // Filter config entries
-            def configs = []
-            ts.configs.each {
-                def entries = []
-                def offsets = []
+            List<ResTable.Type> configs = new ArrayList<ResTable.Type>()
+            for (ResTable.Type c : ts.configs) {
+                ResTable.Entry[] entries = new ResTable.Entry[newEntryCount]
+                int[] offsets = new int[newEntryCount]
                 int offset = 0
-                def emptyCount = 0
-                es.each { e ->
-                    if (e.id == Aapt.ID_DELETED) {
+                int emptyCount = 0
+                for (int j = 0; j < newEntryCount; j++) {
+                    int id = es[j]
+                    if (id == Aapt.ID_DELETED) {
                         // TODO: Add empty entry to default config
                         throw new UnsupportedOperationException("No support deleting resources on lib.* now")
                     }
-
-                    def entry = it.entries[e.id]
-                    if (entry == null) {
-                        throw new Exception("Missing entry at ${e} on ${it}!")
+                    if (id < 0 || id >= c.entries.length) {
+                        throw new Exception("Missing entry at ${names[j]}(${id}) on type ${c.id}!")
                     }
 
-                    entries.add(entry)
-                    if (entry.isEmpty()) {
-                        offsets.add(-1)
+                    ResTable.Entry entry = c.entries[id]
+                    entries[j] = entry
+                    if (entry == null) {
+                        offsets[j] = ResTableType.NO_ENTRY
                         emptyCount++
-                        return
+                        continue
                     }
 
-                    def ename = new String(t.keyStringPool.strings[entry.key]).replaceAll('\\.', '_')
-                    if (e.name != ename) {
-                        throw new Exception("Required entry '${e.name}' but got '$ename', This " +
+                    String ename = keyNames[entry.key]
+                    if (ename == null) {
+                        ename = t.keyStringPool.getString(entry.key).replace('.', '_')
+                        keyNames[entry.key] = ename
+                    }
+                    if (names[j] != ename) {
+                        throw new Exception("Required entry '${names[j]}' but got '$ename', This " +
                                 "is seems to unsupport the buildToolsRevision: ${version}.")
                     }
 
-                    offsets.add(offset)
+                    offsets[j] = offset
                     offset += entry.allSize
-                    if (!retainedKeyIds.contains(entry.key)) retainedKeyIds.add(entry.key)
+                    if (retainedKeyIds.indexOf(entry.key) < 0) retainedKeyIds.add(entry.key)
                     retainedEntries.add(entry)
-                    int dataType
-                    if (entry.value != null) {
+                    if (!entry.complex) {
                         // Reset entry ids
-                        dataType = entry.value.dataType
+                        int dataType = entry.valueType
                         if (dataType == ResValueDataType.TYPE_STRING) {
                             // String reference
-                            def oldId = entry.value.data
-                            def newId = retainedStringIds.indexOf(oldId)
-                            if (newId < 0) {
-                                retainedStringIds.add(oldId)
-                                newId = retainedStringIds.size() - 1
-                            }
-                            entry.value.data = newId
+                            entry.valueData = retainedStringIds.indexOfOrAdd(entry.valueData)
                         } else if (dataType == ResValueDataType.TYPE_REFERENCE) {
-                            def id = idMaps.get(entry.value.data)
-                            if (id != null) {
-                                if (DEBUG_NOISY) println "\t -- map ResTable_entry.value: " +
-                                        "${String.format('0x%08x', entry.value.data)} -> " +
-                                        "${String.format('0x%08x', id)}"
-                                entry.value.data = id
-                            }
+                            Integer newId = mapId('ResTable_entry.value', idMaps, entry.valueData)
+                            if (newId != null) entry.valueData = newId
                         }
-                    } else if (entry.maps != null) {
+                    } else {
                         // Reset entry parent
-                        def id = idMaps.get(entry.parent)
-                        if (id != null) {
-                            if (DEBUG_NOISY) println "\t -- map ResTable_map_entry.parent: " +
-                                    "${String.format('0x%08x', entry.parent)} -> " +
-                                    "${String.format('0x%08x', id)}"
-                            entry.parent = id
-                        }
-                        entry.maps.each {
+                        Integer newId = mapId('ResTable_map_entry.parent', idMaps, entry.parent)
+                        if (newId != null) entry.parent = newId
+                        for (int m = 0; m < entry.mapNames.length; m++) {
                             // Reset map ids
-                            id = idMaps.get(it.name)
-                            if (id != null) {
-                                if (DEBUG_NOISY) println "\t -- map ResTable_map.name: " +
-                                        "${String.format('0x%08x', it.name)} -> " +
-                                        "${String.format('0x%08x', id)}"
-                                it.name = id
-                            }
-                            dataType = it.value.dataType
+                            newId = mapId('ResTable_map.name', idMaps, entry.mapNames[m])
+                            if (newId != null) entry.mapNames[m] = newId
+                            int dataType = entry.getMapType(m)
                             if (dataType == ResValueDataType.TYPE_STRING) {
                                 // String reference
-                                def oldId = it.value.data
-                                def newId = retainedStringIds.indexOf(oldId)
-                                if (newId < 0) {
-                                    retainedStringIds.add(oldId)
-                                    newId = retainedStringIds.size() - 1
-                                }
-                                it.value.data = newId
+                                entry.mapData[m] = retainedStringIds.indexOfOrAdd(entry.mapData[m])
                             } else if (dataType == ResValueDataType.TYPE_REFERENCE) {
-                                id = idMaps.get(it.value.data)
-                                if (id != null) {
-                                    if (DEBUG_NOISY) println "\t -- map ResTable_map.value: " +
-                                            "${String.format('0x%08x', it.value.data)} -> " +
-                                            "${String.format('0x%08x', id)}"
-                                    it.value.data = id
-
-                                    int pid = (id >> 24)
+                                newId = mapId('ResTable_map.value', idMaps, entry.mapData[m])
+                                if (newId != null) {
+                                    entry.mapData[m] = newId
+
+                                    int pid = (newId >> 24)
                                     if (pid != 0x7f && pid != 0x01 && pid != pp) {
                                         libPackageIds.add(pid)
                                     }
@@ -214,101 +235,88 @@ public class ArscEditor extends AssetEditor {
                     }
                 }
 
-                if (emptyCount == ts.entryCount) return
+                if (emptyCount == ts.entryCount) continue
 
-                it.entries = entries
-                it.entryOffsets = offsets
-                it.entryCount = ts.entryCount
-                it.entriesStart -= d
-                it.header.size -= d + it.entriesSize - offset
-                it.id = ts.id
-                configs.add(it)
+                c.entries = entries
+                c.entryOffsets = offsets
+                c.entryCount = ts.entryCount
+                c.entriesStart -= d
+                c.size -= d + c.entriesSize - offset
+                c.id = ts.id
+                configs.add(c)
             }
 
             ts.configs = configs
             retainedTypeSpecs.add(ts)
-            retainedTypeIds.add(it.id - 1)
+            retainedTypeIds.add(typeIds[k] - 1)
         }
 
         // Reset entry keys (reference to keyStringPool index)
-        def keyMaps = [:]
-        retainedKeyIds.eachWithIndex { key, newKey ->
-            keyMaps.put(key, newKey)
+        for (ResTable.Entry e : retainedEntries) {
+            e.key = retainedKeyIds.indexOf(e.key)
         }
-        retainedEntries.each { e ->
-            e.key = keyMaps[e.key]
-        }
-        t.typeList.specs = retainedTypeSpecs
-
+        t.specs = retainedTypeSpecs
 
         // Filter string pools
-        filterStringPool(t.stringPool, retainedStringIds)
-        filterStringPool(t.typeStringPool, retainedTypeIds)
-        filterStringPool(t.keyStringPool, retainedKeyIds)
+        t.stringPool.filter(retainedStringIds)
+        t.typeStringPool.filter(retainedTypeIds)
+        t.keyStringPool.filter(retainedKeyIds)
 
         // Add dynamic ref table for 5.0+
-        def lib = t.typeList.lib
+        ResTable.Library lib = t.lib
         if (lib == null) {
-            lib = [:]
-            lib.header = [:]
-            lib.header.type = ResType.RES_TABLE_LIBRARY_TYPE
-            lib.header.headerSize = LIBRARY_HEADER_SIZE
-            lib.header.size = LIBRARY_HEADER_SIZE + LIBRARY_ENTRY_SIZE
-            lib.count = 1
-            lib.entries = []
-            t.typeList.lib = lib
-        } else {
-            lib.count ++
-            lib.header.size += LIBRARY_ENTRY_SIZE
+            lib = new ResTable.Library(type: ResType.RES_TABLE_LIBRARY_TYPE,
+                    headerSize: LIBRARY_HEADER_SIZE, size: LIBRARY_HEADER_SIZE)
+            t.lib = lib
         }
-        def libEntry = [:]
-        libEntry.packageId = pp
-        libEntry.packageName = t.package.name
-        lib.entries.add(libEntry)
+        lib.size += LIBRARY_ENTRY_SIZE
+        lib.packageIds.add(pp)
+        lib.packageNames.add(t.pkg.name)
 
         // more dynamic ref table from related libraries
-        libPackageIds.each { pid ->
-            def pname = libRefTable[pid]
+        for (Integer pid : libPackageIds) {
+            Object pname = libRefTable.get(pid)
             if (pname == null) {
-                def err = "Failed to resolve package: ${String.format('0x%02x', pid)}\n"
-                libRefTable.each { id, name ->
-                    err += "  [${String.format('0x%02x', id)}] -> $name\n"
+                def err = new StringBuilder("Failed to resolve package: ${String.format('0x%02x', pid)}\n")
+                for (Map.Entry ref : (Set<Map.Entry>) libRefTable.entrySet()) {
+                    err.append("  [${String.format('0x%02x', ref.key)}] -> ${ref.value}\n")
                 }
-                throw new RuntimeException(err)
+                throw new RuntimeException(err.toString())
             }
 
-            lib.count ++
-            lib.header.size += LIBRARY_ENTRY_SIZE
-            lib.entries.add([packageId: pid,
-                             packageName: getUtf16String(pname, 256)])
+            lib.size += LIBRARY_ENTRY_SIZE
+            lib.packageIds.add(pid)
+            lib.packageNames.add((byte[]) getUtf16String(pname.toString(), 256))
         }
 
         // Reset sizes & offsets
-        int size = lib.header.size
-        t.typeList.specs.each { ts ->
-            size += ts.header.size
-            ts.configs.each {
-                size += it.header.size
+        int size = lib.size
+        for (ResTable.TypeSpec ts : t.specs) {
+            size += ts.size
+            for (ResTable.Type c : ts.configs) {
+                size += c.size
             }
         }
-        size += t.typeStringPool.header.size + t.keyStringPool.header.size +
-                t.package.header.headerSize
-        t.package.header.size = size
-        size += t.stringPool.header.size + t.header.headerSize
-        t.header.size = size
-        t.package.keyStrings = t.package.typeStrings + t.typeStringPool.header.size
-        t.package.lastPublicType = t.typeStringPool.strings.size()
-        t.package.lastPublicKey = t.keyStringPool.strings.size()
-
-        // Rewrite
-        t.package.id = pp
-        setLength(t.header.size)
-        seek(0)
-        writeTable(t)
-
-        if (DEBUG_NOISY) dumpTable()
+        size += t.typeStringPool.size + t.keyStringPool.size + t.pkg.headerSize
+        t.pkg.size = size
+        size += t.stringPool.size + t.headerSize
+        t.size = size
+        t.pkg.keyStrings = t.pkg.typeStrings + t.typeStringPool.size
+        t.pkg.lastPublicType = t.typeStringPool.stringCount
+        t.pkg.lastPublicKey = t.keyStringPool.stringCount
+        t.pkg.id = pp
+    }
 
-        close()
+    /** @return the mapped id, or null if not mapped */
+    @CompileStatic
+    private static Integer mapId(String what, Map idMaps, int id) {
+        Object newId = idMaps.get(id)
+        if (newId == null) {
+            return null
+        }
+        if (DEBUG_NOISY) println "\t -- map ${what}: ${String.format('0x%08x', id)} -> " +
+                "${String.format('0x%08x', newId)}"
+        return ((Number) newId).intValue()
     }
 
     /**
@@ -400,176 +408,6 @@ public class ArscEditor extends AssetEditor {
         close()
     }
 
-    /** Read all data of resources.arsc */
-    def readTable() {
-        def header = readChunkHeader()
-        assert (header.type == ResType.RES_TABLE_TYPE)
-
-        def t = [:]
-        t.header = header
-        t.packageCount = readInt()
-        t.stringPool = readStringPool()
-        t.package = readPackage()
-        t.typeStringPool = readStringPool()
-        t.keyStringPool = readStringPool()
-        t.typeList = readTypeList()
-        return t
-    }
-    /** Write all data of resources.arsc */
-    def writeTable(t) {
-        writeChunkHeader(t.header)
-        writeInt(t.packageCount)
-        writeStringPool(t.stringPool)
-        writePackage(t.package)
-        writeStringPool(t.typeStringPool)
-        writeStringPool(t.keyStringPool)
-        writeTypeList(t.typeList)
-    }
-
-    /** Read struct ResTable_package */
-    def readPackage() {
-        def header = readChunkHeader()
-        assert (header.type == ResType.RES_TABLE_PACKAGE_TYPE)
-
-        def p = [:]
-        p.header = header
-        p.id = readInt()
-        p.name = readBytes(256)
-        p.typeStrings = readInt()
-        p.lastPublicType = readInt()
-        p.keyStrings = readInt()
-        p.lastPublicKey = readInt()
-        p.typeIdOffset = readInt()
-        return p
-    }
-    /** Write struct ResTable_package */
-    def writePackage(p) {
-        writeChunkHeader(p.header)
-        writeInt(p.id)
-        writeBytes(p.name)
-        writeInt(p.typeStrings)
-        writeInt(p.lastPublicType)
-        writeInt(p.keyStrings)
-        writeInt(p.lastPublicKey)
-        writeInt(p.typeIdOffset)
-    }
-
-    /** Read 1 x ResTable_lib + (ResTable_typeSpec + ResTable_type x M) x N */
-    def readTypeList() {
-        def offset = tellp()
-        def length = length()
-        def lib = null // ResTable_lib
-        def specs = [] // ResTable_typeSpec
-        def currTypeSpec = null
-        while (offset < length) {
-            def tt = [:]
-            tt.header = readChunkHeader()
-            switch (tt.header.type) {
-                case ResType.RES_TABLE_TYPE_SPEC_TYPE:
-                    tt.id = readByte()
-                    tt.res0 = readByte()
-                    tt.res1 = readShort()
-                    tt.entryCount = readInt()
-                    tt.flags = []
-                    for (int i = 0; i < tt.entryCount; i++) {
-                        tt.flags[i] = readInt()
-                    }
-                    currTypeSpec = tt
-                    specs.add(tt)
-                    break
-                case ResType.RES_TABLE_TYPE_TYPE:
-                    tt.id = readByte()
-                    tt.res0 = readByte()
-                    tt.res1 = readShort()
-                    tt.entryCount = readInt()
-                    tt.entriesStart = readInt()
-                    tt.config = readTableConfig()
-                    tt.entryOffsets = []
-                    tt.entries = []
-                    for (int i = 0; i < tt.entryCount; i++) {
-                        tt.entryOffsets.add(readInt())
-                    }
-                    int start = offset + tt.entriesStart
-                    tt.entriesSize = 0
-                    for (int i = 0; i < tt.entryCount; i++) {
-                        int pos = tt.entryOffsets[i]
-                        if (pos == -1) {
-                            tt.entries.add([:])
-                            continue
-                        }
-                        pos += start
-                        seek(pos)
-                        def entry = readTableEntry()
-                        entry.allSize = tellp() - pos
-                        tt.entries.add(entry)
-                        tt.entriesSize += entry.allSize
-                    }
-                    if (currTypeSpec.configs == null) currTypeSpec.configs = []
-                    currTypeSpec.configs.add(tt)
-                    break
-                case ResType.RES_TABLE_LIBRARY_TYPE:
-                    tt.count = readInt()
-                    tt.entries = []
-                    for (int i = 0; i < tt.count; i++) {
-                        def entry = [:]
-                        entry.packageId = readInt()
-                        entry.packageName = readBytes(256)
-                        tt.entries.add(entry)
-                    }
-                    lib = tt
-                    break
-                default:
-                    println "!!!Unkown type: ${String.format('0x%04x', tt.header.type)}"
-                    seek(tellp() - 8)
-                    dumpBytes(32)
-                    assert(false)
-            }
-            offset += tt.header.size
-            seek(offset)
-        }
-        return [specs:specs, lib:lib]
-    }
-    /** Write 1 x ResTable_lib + (ResTable_typeSpec + ResTable_type x M) x N */
-    def writeTypeList(tl) {
-        if (tl.lib) {
-            // ResTable_lib (5.0+)
-            writeChunkHeader(tl.lib.header)
-            writeInt(tl.lib.count)
-            tl.lib.entries.each {
-                writeInt(it.packageId)
-                writeBytes(it.packageName)
-            }
-        }
-        tl.specs.each { ts ->
-            // ResTable_typeSpec
-            writeChunkHeader(ts.header)
-            writeByte(ts.id)
-            writeByte(ts.res0)
-            writeShort(ts.res1)
-            writeInt(ts.entryCount)
-            ts.flags.each {
-                writeInt(it ?: 0)
-            }
-            ts.configs.each { c ->
-                // ResTable_type
-                writeChunkHeader(c.header)
-                writeByte(c.id)
-                writeByte(c.res0)
-                writeShort(c.res1)
-                writeInt(c.entryCount)
-                writeInt(c.entriesStart)
-                writeTableConfig(c.config)
-                c.entryOffsets.each {
-                    writeInt(it)
-                }
-                c.entries.each { e ->
-                    if (e.isEmpty()) return
-                    writeTableEntry(e)
-                }
-            }
-        }
-    }
-
     /** Read struct ResTable_entry */
     def _readTableEntry() {
         def e = [:]
@@ -578,97 +416,6 @@ public class ArscEditor extends AssetEditor {
         e.key = readInt()
         return e
     }
-    /** Read struct ResTable_entry or ResTable_map_entry */
-    def readTableEntry() {
-        def e = _readTableEntry()
-        if (e.flags & ResTableEntry.FLAG_COMPLEX) {
-            // ResTable_map_entry
-            e.parent = readInt()
-            e.count = readInt()
-            e.maps = []
-            for (int i = 0; i < e.count; i++) {
-                e.maps.add(readTableMap())
-            }
-        } else {
-            e.value = readResValue()
-        }
-        return e
-    }
-    /** Write struct ResTable_entry or ResTable_map_entry */
-    def writeTableEntry(e) {
-        writeShort(e.size)
-        writeShort(e.flags)
-        writeInt(e.key)
-        if (e.maps != null) {
-            writeInt(e.parent)
-            writeInt(e.count)
-            e.maps.each {
-                writeTableMap(it)
-            }
-        } else {
-            writeResValue(e.value)
-        }
-    }
-
-    /** Read struct ResTable_map */
-    def readTableMap() {
-        def m = [:]
-        m.name = readInt()
-        m.value = readResValue()
-        return m
-    }
-    /** Write struct ResTable_map */
-    def writeTableMap(m) {
-        writeInt(m.name)
-        writeResValue(m.value)
-    }
-
-    /** Read struct ResTable_config */
-    def readTableConfig() {
-        def c = [:]
-//        c.size = readInt()
-//        c.imsi = [:]
-//        c.imsi.mcc = readShort()
-//        c.imsi.mnc = readShort()
-//        c.locale = [:]
-//        c.locale.language = readBytes(2)
-//        c.locale.country = readBytes(2)
-//        c.screenType = [:]
-//        c.screenType.orientation = readByte()
-//        c.screenType.touchscreen = readByte()
-//        c.screenType.density = readShort()
-//        c.input = [:]
-//        c.input.keyboard = readByte()
-//        c.input.navigation = readByte()
-//        c.input.inputFlags = readByte()
-//        c.input.inputPad0 = readByte()
-//        c.screenSize = [:]
-//        c.screenSize.screenWidth = readShort()
-//        c.screenSize.screenHeight = readShort()
-//        c.version = [:]
-//        c.version.sdkVersion = readShort()
-//        c.version.minorVersion = readShort()
-//        c.screenConfig = [:]
-//        c.screenConfig.screenLayout = readByte()
-//        c.screenConfig.uiMode = readByte()
-//        c.screenConfig.smallestScreenWidthDp = readShort()
-//        c.screenSizeDp = [:]
-//        c.screenSizeDp.screenWidthDp = readShort()
-//        c.screenSizeDp.screenHeightDp = readShort()
-//        c.localeScript = readBytes(4)
-//        c.localeVariant = readBytes(8)
-//        c.screenConfig2 = [:]
-//        c.screenConfig2.screenLayout2 = readByte()
-//        c.screenConfig2.screenConfigPad1 = readByte()
-//        c.screenConfig2.screenConfigPad2 = readShort()
-        c.ignored = readBytes(mTableConfigSize)
-        return c
-    }
-    /** Write struct ResTable_config */
-    def writeTableConfig(c) {
-        writeBytes(c.ignored)
-    }
-
     /** Read struct ResTable_typeSpec or ResTable_type */
     private def readTableType() {
         def type = [:]
@@ -705,29 +452,14 @@ public class ArscEditor extends AssetEditor {
         pasteLaterData(pos)
     }
 
-    private static def getConfigName(c) {
+    private static def getConfigName(byte[] config) {
         def s = ''
-//        switch (c.screenType.density) {
-//            case 160: s += 'mdpi'; break
-//            case 240: s += 'hdpi'; break
-//            case 320: s += 'xhdpi'; break
-//            case 480: s += 'xxhdpi'; break
-//            case 640: s += 'xxxhdpi'; break
-//        }
-//        if (c.screenSizeDp.screenWidthDp != 0) s += "w${c.screenSizeDp.screenWidthDp}dp"
-//        if (c.version.sdkVersion != 0) s += "-v${c.version.sdkVersion}"
         if (s == '') s = '(default)'
         return s
     }
 
-    private def dumpTable() {
-        seek(0)
-        def t = readTable()
-        dumpTable(t)
-    }
-
     /** Dump table as `aapt d resources' */
-    private def dumpTable(t) {
+    private static def dumpTable(ResTable t) {
         println "String Pool:"
         dumpStringPool(t.stringPool)
         println "Type String Pool:"
@@ -735,18 +467,17 @@ public class ArscEditor extends AssetEditor {
         println "Key String Pool:"
         dumpStringPool(t.keyStringPool)
 
-        def pname = getUtf8String(t.package.name)
-        def pid = t.package.id << 24
-        def pidStr = "0x${Integer.toHexString(t.package.id)}"
+        def pname = getUtf8String(t.pkg.name)
+        def pid = t.pkg.id << 24
+        def pidStr = "0x${Integer.toHexString(t.pkg.id)}"
 
         println "Package Groups (${t.packageCount})"
         println "Package Group 0 id=$pidStr packageCount=${t.packageCount} name=$pname"
-        def lib = t.typeList.lib
+        def lib = t.lib
         if (lib != null) {
-            println "  DynamicRefTable entryCount=${lib.count}"
-            lib.entries.each{ e ->
-                println "    0x${Integer.toHexString(e.packageId)} -> " +
-                        "${getUtf8String(e.packageName)}"
+            println "  DynamicRefTable entryCount=${lib.packageIds.size()}"
+            lib.packageIds.eachWithIndex { id, i ->
+                println "    0x${Integer.toHexString(id)} -> ${getUtf8String(lib.packageNames[i])}"
             }
             println ''
         }
@@ -754,18 +485,16 @@ public class ArscEditor extends AssetEditor {
         println "  Package 0 id=$pidStr name=$pname"
 
         def keyId = 0
-        t.typeList.specs.each { ts ->
-            if (ts.configs == null) return
+        t.specs.each { ts ->
             def configCount = ts.configs.size()
             if (configCount == 0) return
             def entryCount = ts.entryCount
             if (entryCount == 0) return
-            def type = new String(t.typeStringPool.strings[ts.id - 1])
+            def type = t.typeStringPool.getString(ts.id - 1)
             println "    type ${ts.id - 1} configCount=$configCount entryCount=$entryCount"
             for (int ei = 0; ei < entryCount; ei++) {
                 def id = Integer.toHexString(pid | (ts.id << 16) | ei)
-                def keyBuff = t.keyStringPool.strings[keyId]
-                def key = keyBuff == null ? 'null' : new String(keyBuff)
+                def key = keyId < t.keyStringPool.stringCount ? t.keyStringPool.getString(keyId) : 'null'
                 print "      spec resource 0x$id $pname:$type/$key: flags=0x"
                 println String.format('%08x', ts.flags[ei])
                 keyId++
@@ -773,15 +502,14 @@ public class ArscEditor extends AssetEditor {
             ts.configs.each {
                 println "      config ${getConfigName(it.config)}:"
                 it.entries.eachWithIndex { e, ei ->
-                    if (e.key == null) return
+                    if (e == null) return
 
                     def id = Integer.toHexString(pid | (ts.id << 16) | ei)
-                    def keyBuff = t.keyStringPool.strings[e.key]
-                    def key = keyBuff == null ? 'null' : new String(keyBuff)
+                    def key = e.key < t.keyStringPool.stringCount ? t.keyStringPool.getString(e.key) : 'null'
                     print "        resource 0x$id $pname:$type/$key: "
-                    if (e.value != null) {
+                    if (!e.complex) {
                         print String.format('t=0x%02x d=0x%08x (s=0x%04x r=0x%02x)',
-                                e.value.dataType, e.value.data, e.value.size, e.value.res0)
+                                e.valueType, e.valueData, e.valueHead & 0xFFFF, (e.valueHead >> 16) & 0xFF)
                     } else {
                         print '<bag>'
                     }
@@ -791,4 +519,17 @@ public class ArscEditor extends AssetEditor {
             }
         }
     }
+
+    private static def dumpStringPool(ResTable.StringPool pool) {
+        def type = pool.utf8 ? 'UTF-8' : 'UTF-16'
+        println "String pool of ${pool.stringCount} unique $type non-sorted strings, " +
+                "${pool.stringCount} entries and ${pool.styleCount} styles " +
+                "using ${pool.size} bytes:"
+        for (int i = 0; i < pool.stringCount; i++) {
+            println "String #$i: ${pool.getString(i)}"
+        }
+        pool.styles.eachWithIndex { v, i ->
+            println "Style #$i: $v"
+        }
+    }
 }
@@ -60,25 +60,27 @@ public class AssetEditor extends CppHexEditor {
     /**
      * Rewrite package id on incoming uint32_t
      * @param pp high bits of resource id
+     * @param idMaps Map or IntIntMap of the library resource ids
      */
-    protected def checkToRewritePackageId(int pp, Map idMaps) {
+    protected def checkToRewritePackageId(int pp, idMaps) {
         def pos = tellp()
         int id = readInt()
         if (id >> 24 != 0x7f) return
-        if (idMaps != null && idMaps.containsKey(id)) {
+        if (idMaps instanceof IntIntMap) {
+            id = idMaps.get(id, (pp << 24) | (id & 0x00ffffff))
+        } else if (idMaps != null && idMaps.containsKey(id)) {
             id = idMaps.get(id) // use library resource id
         } else {
             id = ((pp << 24) | (id & 0x00ffffff)) // replace pp
         }
-        seek(pos)
-        writeInt(id)
+        putInt(pos, id)
     }
 
     /**
      * Rewrite package id on typed value (Res_value: 8 bytes)
      * @param pp
      */
-    protected def checkToRewriteTypedValueId(int pp, Map idMaps) {
+    protected def checkToRewriteTypedValueId(int pp, idMaps) {
         skip(4)
         checkToRewritePackageId(pp, idMaps)
     }
@@ -278,7 +280,7 @@ public class AssetEditor extends CppHexEditor {
         int i = 0
         int j = 0
         for (; i < N; i++) {
-            str[j++] = u8str.charAt(i)
+            str[j++] = (byte) u8str.charAt(i)
             str[j++] = 0
         }
         for (; j < size; j++) {
@@ -293,50 +295,35 @@ public class AssetEditor extends CppHexEditor {
      * @return
      */
     private Map decodeLength(isUtf8) {
+        final long start = tellp()
+        int value
         if (isUtf8) {
             // *u16len = decodeLength(&u8str); @ResourceTypes.cpp#722, seems to unused here
-            def bytes = []
-            short hb = readByte()
-            bytes.add(hb)
-            if (hb & 0x80) {
-                bytes.add(readByte())
+            if (readByte() & 0x80) {
+                readByte()
             }
 
             // size_t u8len = decodeLength(&u8str); @ResourceTypes.cpp#723, the exact length
-            hb = readByte()
-            bytes.add(hb)
+            int hb = readByte()
             if (hb & 0x80) {
-                short lb = readByte()
-                bytes.add(lb)
+                int lb = readByte()
                 hb = ((hb & 0x7F) << 8) | (lb & 0xff)
             }
-
-            def N = bytes.size()
-            def data = new byte[N]
-            for (int i = 0; i < N; i++) {
-                data[i] = (byte)bytes[i]
-            }
-            return [data: data, value: hb]
+            value = hb
         } else {
             // *u16len = decodeLength(&str); @ResourceTypes.cpp#705
-            def bytes = []
-            def buffer = readBytes(2)
-            bytes.addAll(buffer)
-            int hb = getShort(buffer)
+            int hb = readShort()
             if (hb & 0x8000) {
-                buffer = readBytes(2)
-                bytes.addAll(buffer)
-                int lb = getShort(buffer)
+                int lb = readShort()
                 hb = ((hb & 0x7FFF) << 16) | (lb & 0xFFFF)
             }
-
-            def N = bytes.size()
-            def data = new byte[N]
-            for (int i = 0; i < N; i++) {
-                data[i] = (byte)bytes[i]
-            }
-            return [data: data, value: (hb << 1)]
+            value = hb << 1
         }
+
+        // Keep the encoded length as it is
+        final int n = (int) (tellp() - start)
+        seek(start)
+        return [data: readBytes(n), value: value]
     }
     /** Filter ResStringPool with specific string indexes */
     protected static def filterStringPool(sp, ids) {
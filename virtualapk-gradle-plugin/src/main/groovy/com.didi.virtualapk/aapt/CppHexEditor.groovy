@@ -1,131 +1,149 @@
 package com.didi.virtualapk.aapt
 
-import java.nio.ByteBuffer
-import java.nio.ByteOrder
-
 /**
  * Class of c++ hex file (little endian) editor
+ *
+ * The whole file is read into a LittleEndianBuffer on opening, all of the reads and writes
+ * work on it in memory, and the edited content is written back once on closing.
  */
 public class CppHexEditor {
 
     private File file
-    private File clipFile
     private RandomAccessFile raf
-    private RandomAccessFile clipRaf
+    private LittleEndianBuffer buffer
+    private byte[] clip
     private boolean edited
-    private long lengthBeforeClip
+    private boolean dirty
 
     public CppHexEditor(final File file) {
         this.file = file
         this.raf = new RandomAccessFile(file, 'rw')
+        this.buffer = LittleEndianBuffer.read(this.raf.channel)
     }
 
     protected seek(final long offset) {
-        this.raf.seek(offset)
+        this.buffer.seek((int) offset)
     }
 
     protected skip(final long count) {
-        this.raf.skipBytes((int) count)
+        this.buffer.skip((int) count)
     }
 
-    protected tellp() {
-        return this.raf.getFilePointer()
+    protected long tellp() {
+        return this.buffer.position()
     }
 
-    protected length() {
-        return this.raf.length()
+    protected long length() {
+        return this.buffer.length()
     }
 
     protected setLength(final long length) {
-        this.raf.setLength(length)
+        this.buffer.setLength((int) length)
+        this.dirty = true
     }
 
+    /**
+     * Write back the edited content and close the file
+     */
     protected close() {
+        if (this.dirty) {
+            this.buffer.writeTo(this.raf.channel)
+            this.dirty = false
+        }
         this.raf.close()
     }
 
+    /**
+     * Whole content of the file, for the editors parsing chunks on their own
+     */
+    protected LittleEndianBuffer readAll() {
+        return this.buffer
+    }
+
+    /**
+     * Replace the whole content of the file, written back on closing
+     */
+    protected void writeAll(final LittleEndianBuffer buffer) {
+        this.buffer = buffer
+        markEdited()
+    }
+
     /*
      * Following reader & writer convert endian from c++(aapt) to java
      *  c++: little endian
      *  java: big endian
      */
     protected byte readByte() {
-        return this.raf.readByte()
+        return this.buffer.readByte()
     }
 
     protected void writeByte(val) {
-        final def buffer = new byte[1]
-        buffer[0] = (byte) (val & 0xFF)
-        writeBytes(buffer)
+        this.buffer.writeByte(val as int)
+        markEdited()
     }
 
     protected short readShort() {
-        final def buffer = readBytes(2)
-        return getShort(buffer)
+        return this.buffer.readShort()
     }
 
     protected short getShort(final byte[] buffer) {
-        final ByteBuffer bb = ByteBuffer.wrap(buffer)
-        bb.order(ByteOrder.LITTLE_ENDIAN)
-        return bb.getShort()
+        return (short) ((buffer[0] & 0xFF) | (buffer[1] << 8))
     }
 
     protected void writeShort(i) {
-        final def buffer = new byte[2];
-        buffer[1] = (byte) ((i >> 8) & 0xFF);
-        buffer[0] = (byte) (i & 0xFF);
-        writeBytes(buffer)
+        this.buffer.writeShort(i as int)
+        markEdited()
     }
 
     protected int readInt() {
-        def buffer = readBytes(4)
-        ByteBuffer bb = ByteBuffer.wrap(buffer)
-        bb.order(ByteOrder.LITTLE_ENDIAN)
-        return bb.getInt()
+        return this.buffer.readInt()
     }
 
     protected void writeInt(i) {
-        final def buffer = new byte[4];
-        buffer[3] = (byte) ((i >> 24) & 0xFF);
-        buffer[2] = (byte) ((i >> 16) & 0xFF);
-        buffer[1] = (byte) ((i >> 8) & 0xFF);
-        buffer[0] = (byte) (i & 0xFF);
-        writeBytes(buffer)
+        this.buffer.writeInt(i as int)
+        markEdited()
+    }
+
+    /**
+     * Read uint32_t at pos without moving the cursor
+     */
+    protected int getInt(final long pos) {
+        return this.buffer.getInt((int) pos)
+    }
+
+    /**
+     * Patch uint32_t at pos in place, without moving the cursor
+     */
+    protected void putInt(final long pos, final int i) {
+        this.buffer.putInt((int) pos, i)
+        markEdited()
     }
 
     protected byte[] readBytes(n) {
-        final byte[] buffer = new byte[n]
-        this.raf.read(buffer)
-        return buffer
+        return this.buffer.readBytes(n as int)
     }
 
     protected void writeBytes(final byte[] buffer) {
-        this.raf.write(buffer)
-        if (!this.edited) {
-            this.edited = true
-        }
+        this.buffer.writeBytes(buffer)
+        markEdited()
     }
 
     protected void clipLaterData(final long pos) {
-        this.clipFile = new File(this.file.parentFile, "${file.name}~")
-        this.clipRaf = new RandomAccessFile(this.clipFile, 'rw')
-
-        this.lengthBeforeClip = this.raf.length()
-        def sc = this.raf.channel
-        def cc = this.clipRaf.channel
-        sc.transferTo(pos, this.lengthBeforeClip - pos, cc)
-        sc.truncate(pos)
+        this.buffer.seek((int) pos)
+        this.clip = this.buffer.readBytes(this.buffer.length() - (int) pos)
+        setLength(pos)
     }
 
     protected void pasteLaterData(final long pos) {
-        final def newPos = tellp()
-        final def sc = this.raf.channel
-        final def cc = this.clipRaf.channel
-        cc.position(0L)
-        sc.transferFrom(cc, newPos, this.lengthBeforeClip - pos)
-
-        this.clipRaf.close()
-        this.clipFile.delete()
+        final int newPos = this.buffer.position()
+        this.buffer.writeBytes(this.clip)
+        this.buffer.seek(newPos)
+        this.clip = null
+    }
+
+    private void markEdited() {
+        this.edited = true
+        this.dirty = true
     }
 
     /**
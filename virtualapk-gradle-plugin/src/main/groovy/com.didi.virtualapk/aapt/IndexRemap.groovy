@@ -0,0 +1,66 @@
+package com.didi.virtualapk.aapt
+
+import groovy.transform.CompileStatic
+
+/**
+ * Ordered list of the retained indexes of a string pool, with the table from each old index
+ * to its new one, so that looking up or retaining an index is O(1) instead of List#indexOf.
+ */
+@CompileStatic
+public class IndexRemap {
+
+    private final int[] newIndexes
+    private int[] ids = new int[16]
+    private int size
+
+    /**
+     * @param capacity the count of the old indexes
+     */
+    public IndexRemap(int capacity) {
+        newIndexes = new int[Math.max(capacity, 0)]
+        Arrays.fill(newIndexes, -1)
+    }
+
+    public int size() {
+        return size
+    }
+
+    /** @return the old index at new index i */
+    public int get(int i) {
+        return ids[i]
+    }
+
+    /** Append an old index, a duplicated one keeps its first new index */
+    public void add(int id) {
+        check(id)
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size << 1)
+        }
+        if (newIndexes[id] < 0) {
+            newIndexes[id] = size
+        }
+        ids[size++] = id
+    }
+
+    /** @return the new index of the old one, or -1 if not retained */
+    public int indexOf(int id) {
+        check(id)
+        return newIndexes[id]
+    }
+
+    /** @return the new index of the old one, retaining it at the end if absent */
+    public int indexOfOrAdd(int id) {
+        int newId = indexOf(id)
+        if (newId < 0) {
+            add(id)
+            newId = size - 1
+        }
+        return newId
+    }
+
+    private void check(int id) {
+        if (id < 0 || id >= newIndexes.length) {
+            throw new IndexOutOfBoundsException("String index ${id} out of pool size ${newIndexes.length}")
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.didi.virtualapk.aapt
+
+import groovy.transform.CompileStatic
+
+/**
+ * Read-only hash map of int keys to int values, with open addressing and no boxing on lookups.
+ * It is safe to be shared by threads once created.
+ */
+@CompileStatic
+public final class IntIntMap {
+
+    private final int[] keys
+    private final int[] values
+    private final boolean[] used
+    private final int mask
+    private int size
+
+    private IntIntMap(int expectedSize) {
+        int capacity = 4
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1
+        }
+        keys = new int[capacity]
+        values = new int[capacity]
+        used = new boolean[capacity]
+        mask = capacity - 1
+    }
+
+    /**
+     * Copy a map of resource ids, the keys and values must be numbers
+     */
+    public static IntIntMap of(Map<?, ?> map) {
+        IntIntMap m = new IntIntMap(map == null ? 0 : map.size())
+        if (map != null) {
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                m.put(((Number) entry.key).intValue(), ((Number) entry.value).intValue())
+            }
+        }
+        return m
+    }
+
+    public int size() {
+        return size
+    }
+
+    public boolean containsKey(int key) {
+        return used[indexOf(key)]
+    }
+
+    /**
+     * @return the value of key, or defaultValue if absent
+     */
+    public int get(int key, int defaultValue) {
+        int i = indexOf(key)
+        return used[i] ? values[i] : defaultValue
+    }
+
+    private void put(int key, int value) {
+        int i = indexOf(key)
+        if (!used[i]) {
+            used[i] = true
+            keys[i] = key
+            size++
+        }
+        values[i] = value
+    }
+
+    /** @return the slot of key, or the free slot to put it */
+    private int indexOf(int key) {
+        int h = key * -1640531527 // 0x9E3779B9
+        int i = (h ^ (h >>> 16)) & mask
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask
+        }
+        return i
+    }
+}
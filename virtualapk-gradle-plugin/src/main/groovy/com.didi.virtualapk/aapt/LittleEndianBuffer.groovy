@@ -0,0 +1,229 @@
+package com.didi.virtualapk.aapt
+
+import groovy.transform.CompileStatic
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Growable byte buffer with a cursor, reading and writing c++ (little endian) values in memory.
+ *
+ * Reads past the end behave as RandomAccessFile does: missing bytes are zeros and the cursor
+ * stops at the end, while writes past the end grow the buffer.
+ */
+@CompileStatic
+public class LittleEndianBuffer {
+
+    private byte[] data
+    private int length
+    private int position
+
+    public LittleEndianBuffer(int capacity) {
+        this.data = new byte[Math.max(capacity, 16)]
+    }
+
+    public LittleEndianBuffer(byte[] data, int length) {
+        this.data = data
+        this.length = length
+    }
+
+    /**
+     * Read the whole content of the channel with a single bulk read
+     */
+    public static LittleEndianBuffer read(FileChannel channel) {
+        long size = channel.size()
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large: ${size} bytes")
+        }
+        byte[] data = new byte[(int) size]
+        ByteBuffer bb = ByteBuffer.wrap(data)
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, bb.position()) < 0) {
+                break
+            }
+        }
+        return new LittleEndianBuffer(data, bb.position())
+    }
+
+    /**
+     * Replace the whole content of the channel with this buffer
+     */
+    public void writeTo(FileChannel channel) {
+        ByteBuffer bb = ByteBuffer.wrap(data, 0, length)
+        while (bb.hasRemaining()) {
+            channel.write(bb, bb.position())
+        }
+        channel.truncate(length)
+    }
+
+    public int length() {
+        return length
+    }
+
+    public int position() {
+        return position
+    }
+
+    public void seek(int pos) {
+        position = pos
+    }
+
+    /**
+     * Skip at most to the end, as RandomAccessFile#skipBytes
+     * @return the number of bytes skipped
+     */
+    public int skip(int count) {
+        int n = Math.min(count, length - position)
+        if (n <= 0) {
+            return 0
+        }
+        position += n
+        return n
+    }
+
+    public void setLength(int newLength) {
+        if (newLength < length) {
+            Arrays.fill(data, newLength, length, (byte) 0)
+        } else {
+            ensureCapacity(newLength)
+        }
+        length = newLength
+        if (position > length) {
+            position = length
+        }
+    }
+
+    /*
+     * Absolute accessors, patching in place
+     */
+    public int getByte(int pos) {
+        return pos < length ? data[pos] : 0
+    }
+
+    public int getShort(int pos) {
+        if (pos + 2 > length) {
+            return (short) ((getByte(pos) & 0xFF) | (getByte(pos + 1) << 8))
+        }
+        return (short) ((data[pos] & 0xFF) | (data[pos + 1] << 8))
+    }
+
+    public int getInt(int pos) {
+        if (pos + 4 > length) {
+            return (getByte(pos) & 0xFF) | ((getByte(pos + 1) & 0xFF) << 8) |
+                    ((getByte(pos + 2) & 0xFF) << 16) | (getByte(pos + 3) << 24)
+        }
+        return (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8) |
+                ((data[pos + 2] & 0xFF) << 16) | (data[pos + 3] << 24)
+    }
+
+    public void putByte(int pos, int v) {
+        grow(pos + 1)
+        data[pos] = (byte) v
+    }
+
+    public void putShort(int pos, int v) {
+        grow(pos + 2)
+        data[pos] = (byte) v
+        data[pos + 1] = (byte) (v >> 8)
+    }
+
+    public void putInt(int pos, int v) {
+        grow(pos + 4)
+        data[pos] = (byte) v
+        data[pos + 1] = (byte) (v >> 8)
+        data[pos + 2] = (byte) (v >> 16)
+        data[pos + 3] = (byte) (v >> 24)
+    }
+
+    /*
+     * Relative accessors, moving the cursor
+     */
+    public byte readByte() {
+        if (position >= length) {
+            throw new EOFException()
+        }
+        return data[position++]
+    }
+
+    public short readShort() {
+        int v = getShort(position)
+        position = Math.min(position + 2, Math.max(position, length))
+        return (short) v
+    }
+
+    public int readInt() {
+        int v = getInt(position)
+        position = Math.min(position + 4, Math.max(position, length))
+        return v
+    }
+
+    public byte[] readBytes(int n) {
+        byte[] buffer = new byte[n]
+        int count = Math.min(n, length - position)
+        if (count > 0) {
+            System.arraycopy(data, position, buffer, 0, count)
+            position += count
+        }
+        return buffer
+    }
+
+    public void writeByte(int v) {
+        putByte(position, v)
+        position++
+    }
+
+    public void writeShort(int v) {
+        putShort(position, v)
+        position += 2
+    }
+
+    public void writeInt(int v) {
+        putInt(position, v)
+        position += 4
+    }
+
+    public void writeBytes(byte[] buffer) {
+        grow(position + buffer.length)
+        System.arraycopy(buffer, 0, data, position, buffer.length)
+        position += buffer.length
+    }
+
+    /**
+     * Write n bytes of the source from pos, copying a whole chunk at once
+     */
+    public void writeBytes(LittleEndianBuffer source, int pos, int n) {
+        grow(position + n)
+        int count = Math.max(0, Math.min(n, source.length - pos))
+        System.arraycopy(source.data, pos, data, position, count)
+        if (count < n) {
+            Arrays.fill(data, position + count, position + n, (byte) 0)
+        }
+        position += n
+    }
+
+    public void writeZeros(int n) {
+        grow(position + n)
+        Arrays.fill(data, position, position + n, (byte) 0)
+        position += n
+    }
+
+    /**
+     * Decode the bytes from pos with the default charset
+     */
+    public String getString(int pos, int n) {
+        return new String(data, pos, Math.max(0, Math.min(n, length - pos)))
+    }
+
+    private void grow(int newLength) {
+        if (newLength > length) {
+            ensureCapacity(newLength)
+            length = newLength
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length << 1))
+        }
+    }
+}
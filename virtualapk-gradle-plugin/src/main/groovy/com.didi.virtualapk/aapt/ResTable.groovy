@@ -0,0 +1,597 @@
+package com.didi.virtualapk.aapt
+
+import groovy.transform.CompileStatic
+
+/**
+ * Typed struct ResTable of aapt-generated resources.arsc
+ *
+ * The strings and entries are read from a LittleEndianBuffer holding the whole file,
+ * strings are kept as their positions in it and copied chunk by chunk on writing.
+ */
+@CompileStatic
+public class ResTable {
+
+    int type
+    int headerSize
+    int size
+    int packageCount
+    StringPool stringPool
+    PackageChunk pkg
+    StringPool typeStringPool
+    StringPool keyStringPool
+    Library lib
+    List<TypeSpec> specs = []
+
+    /**
+     * Read struct ResTable and following chunks
+     * @param configSize sizeof(ResTable_config)
+     */
+    public static ResTable read(LittleEndianBuffer b, int configSize) {
+        ResTable t = new ResTable()
+        t.type = b.readShort()
+        t.headerSize = b.readShort()
+        t.size = b.readInt()
+        assert (t.type == ResType.RES_TABLE_TYPE)
+
+        t.packageCount = b.readInt()
+        t.stringPool = StringPool.read(b)
+        t.pkg = PackageChunk.read(b)
+        t.typeStringPool = StringPool.read(b)
+        t.keyStringPool = StringPool.read(b)
+        t.readTypeList(b, configSize)
+        return t
+    }
+
+    /** Read 1 x ResTable_lib + (ResTable_typeSpec + ResTable_type x M) x N */
+    private void readTypeList(LittleEndianBuffer b, int configSize) {
+        int offset = b.position()
+        int length = b.length()
+        TypeSpec currTypeSpec = null
+        while (offset < length) {
+            int type = b.readShort()
+            int headerSize = b.readShort()
+            int size = b.readInt()
+            switch (type) {
+                case ResType.RES_TABLE_TYPE_SPEC_TYPE:
+                    TypeSpec ts = new TypeSpec(type: type, headerSize: headerSize, size: size)
+                    ts.id = b.readByte() & 0xFF
+                    ts.res0 = b.readByte()
+                    ts.res1 = b.readShort()
+                    ts.entryCount = b.readInt()
+                    ts.flags = new int[Math.max(ts.entryCount, 0)]
+                    for (int i = 0; i < ts.entryCount; i++) {
+                        ts.flags[i] = b.readInt()
+                    }
+                    currTypeSpec = ts
+                    specs.add(ts)
+                    break
+                case ResType.RES_TABLE_TYPE_TYPE:
+                    Type tt = new Type(type: type, headerSize: headerSize, size: size)
+                    tt.id = b.readByte() & 0xFF
+                    tt.res0 = b.readByte()
+                    tt.res1 = b.readShort()
+                    tt.entryCount = b.readInt()
+                    tt.entriesStart = b.readInt()
+                    tt.config = b.readBytes(configSize)
+                    int count = Math.max(tt.entryCount, 0)
+                    tt.entryOffsets = new int[count]
+                    tt.entries = new Entry[count]
+                    for (int i = 0; i < count; i++) {
+                        tt.entryOffsets[i] = b.readInt()
+                    }
+                    int start = offset + tt.entriesStart
+                    for (int i = 0; i < count; i++) {
+                        int pos = tt.entryOffsets[i]
+                        if (pos == ResTableType.NO_ENTRY) {
+                            continue
+                        }
+                        pos += start
+                        b.seek(pos)
+                        Entry entry = Entry.read(b)
+                        entry.allSize = b.position() - pos
+                        tt.entries[i] = entry
+                        tt.entriesSize += entry.allSize
+                    }
+                    currTypeSpec.configs.add(tt)
+                    break
+                case ResType.RES_TABLE_LIBRARY_TYPE:
+                    Library l = new Library(type: type, headerSize: headerSize, size: size)
+                    int libCount = b.readInt()
+                    for (int i = 0; i < libCount; i++) {
+                        l.packageIds.add(b.readInt())
+                        l.packageNames.add(b.readBytes(256))
+                    }
+                    lib = l
+                    break
+                default:
+                    println "!!!Unkown type: ${String.format('0x%04x', type)}"
+                    assert (false)
+            }
+            offset += size
+            b.seek(offset)
+        }
+    }
+
+    /** Write struct ResTable and following chunks */
+    public void write(LittleEndianBuffer out) {
+        out.writeShort(type)
+        out.writeShort(headerSize)
+        out.writeInt(size)
+        out.writeInt(packageCount)
+        stringPool.write(out)
+        pkg.write(out)
+        typeStringPool.write(out)
+        keyStringPool.write(out)
+
+        if (lib != null) {
+            // ResTable_lib (5.0+)
+            out.writeShort(lib.type)
+            out.writeShort(lib.headerSize)
+            out.writeInt(lib.size)
+            out.writeInt(lib.packageIds.size())
+            for (int i = 0; i < lib.packageIds.size(); i++) {
+                out.writeInt(lib.packageIds[i])
+                out.writeBytes(lib.packageNames[i])
+            }
+        }
+        for (TypeSpec ts : specs) {
+            // ResTable_typeSpec
+            out.writeShort(ts.type)
+            out.writeShort(ts.headerSize)
+            out.writeInt(ts.size)
+            out.writeByte(ts.id)
+            out.writeByte(ts.res0)
+            out.writeShort(ts.res1)
+            out.writeInt(ts.entryCount)
+            for (int flag : ts.flags) {
+                out.writeInt(flag)
+            }
+            for (Type c : ts.configs) {
+                // ResTable_type
+                out.writeShort(c.type)
+                out.writeShort(c.headerSize)
+                out.writeInt(c.size)
+                out.writeByte(c.id)
+                out.writeByte(c.res0)
+                out.writeShort(c.res1)
+                out.writeInt(c.entryCount)
+                out.writeInt(c.entriesStart)
+                out.writeBytes(c.config)
+                for (int offset : c.entryOffsets) {
+                    out.writeInt(offset)
+                }
+                for (Entry e : c.entries) {
+                    if (e != null) {
+                        e.write(out)
+                    }
+                }
+            }
+        }
+    }
+
+    /** Struct ResStringPool_header and following string data */
+    public static class StringPool {
+        int type
+        int headerSize
+        int size
+        int stringCount
+        int styleCount
+        int flags
+        int stringsStart
+        int stylesStart
+        int[] stringOffsets
+        int[] styleOffsets
+        LittleEndianBuffer source
+        int[] stringPositions // position of each encoded string in the source
+        int[] stringLengths // length of each encoded string, without the terminator
+        int[] stringValueLengths // length of each string data
+        int eofLength
+        int stringsSize
+        int stringPadding
+        int[][] styles // name, firstChar, lastChar of each span
+        int[] styleLens
+        int styleSize
+        Set<Integer> styleStringIds = new HashSet<Integer>()
+        byte[] styleEnd
+
+        public boolean isUtf8() {
+            return (flags & ResStringFlag.UTF8_FLAG) != 0
+        }
+
+        /** Decode string data with the default charset */
+        public String getString(int i) {
+            int dataLength = stringValueLengths[i]
+            return source.getString(stringPositions[i] + stringLengths[i] - dataLength, dataLength)
+        }
+
+        public static StringPool read(LittleEndianBuffer b) {
+            int pos = b.position()
+            StringPool s = new StringPool(source: b)
+            s.type = b.readShort()
+            s.headerSize = b.readShort()
+            s.size = b.readInt()
+            assert (s.type == ResType.RES_STRING_POOL_TYPE)
+
+            s.stringCount = b.readInt()
+            s.styleCount = b.readInt()
+            s.flags = b.readInt()
+            s.stringsStart = b.readInt()
+            s.stylesStart = b.readInt()
+            boolean utf8 = s.isUtf8()
+            s.eofLength = utf8 ? 1 : 2
+
+            // Read offsets
+            s.stringOffsets = new int[Math.max(s.stringCount, 0)]
+            for (int i = 0; i < s.stringCount; i++) {
+                s.stringOffsets[i] = b.readInt()
+            }
+            s.styleOffsets = new int[Math.max(s.styleCount, 0)]
+            for (int i = 0; i < s.styleCount; i++) {
+                s.styleOffsets[i] = b.readInt()
+            }
+
+            // Locate strings
+            int start = s.stringsStart + pos
+            s.stringPositions = new int[s.stringOffsets.length]
+            s.stringLengths = new int[s.stringOffsets.length]
+            s.stringValueLengths = new int[s.stringOffsets.length]
+            for (int i = 0; i < s.stringCount; i++) {
+                b.seek(start + s.stringOffsets[i])
+                int strPos = b.position()
+                int len = decodeLength(b, utf8)
+                int lenSize = b.position() - strPos
+                s.stringPositions[i] = strPos
+                s.stringLengths[i] = lenSize + len
+                s.stringValueLengths[i] = len
+                s.stringsSize += len + lenSize + s.eofLength
+                b.skip(len)
+                b.skip(s.eofLength)
+            }
+
+            int endPos = pos + s.size
+            int curPos = b.position()
+            boolean noStyles = (s.stylesStart == 0)
+            if (noStyles) {
+                s.stringPadding = endPos - curPos
+            } else {
+                start = s.stylesStart + pos
+                s.stringPadding = start - curPos
+            }
+            if (s.stringPadding != 0) {
+                b.skip(s.stringPadding)
+            }
+
+            if (noStyles) {
+                s.styles = new int[0][]
+                s.styleLens = new int[0]
+                return s
+            }
+
+            // Read styles
+            s.styles = new int[s.styleOffsets.length][]
+            s.styleLens = new int[s.styleOffsets.length]
+            for (int i = 0; i < s.styleCount; i++) {
+                b.seek(start + s.styleOffsets[i])
+                int spanStart = b.position()
+                int spanCount = 0
+                while (b.readInt() != ResStringPoolSpan.END) {
+                    b.skip(8)
+                    spanCount++
+                }
+                int[] style = new int[spanCount * 3]
+                for (int j = 0; j < style.length; j++) {
+                    style[j] = b.getInt(spanStart + j * 4)
+                }
+                for (int j = 0; j < style.length; j += 3) {
+                    s.styleStringIds.add(style[j])
+                }
+                s.styles[i] = style
+                s.styleLens[i] = spanCount * 12 + 4
+            }
+
+            // Validate styles end span
+            s.styleEnd = b.readBytes(8)
+            s.styleSize = endPos - start
+
+            assert (Arrays.equals(s.styleEnd, ResStringPoolSpan.END_SPAN))
+            return s
+        }
+
+        /**
+         * see https://github.com/android/platform_frameworks_base/blob/d59921149bb5948ffbcb9a9e832e9ac1538e05a0/libs/androidfw/ResourceTypes.cpp
+         * @return the length of the string data
+         */
+        private static int decodeLength(LittleEndianBuffer b, boolean utf8) {
+            if (utf8) {
+                // u16len, seems to unused here
+                if (b.readByte() & 0x80) {
+                    b.readByte()
+                }
+                // u8len, the exact length
+                int hb = b.readByte()
+                if (hb & 0x80) {
+                    int lb = b.readByte()
+                    hb = ((hb & 0x7F) << 8) | (lb & 0xFF)
+                }
+                return hb
+            }
+            int hb = b.readShort()
+            if (hb & 0x8000) {
+                int lb = b.readShort()
+                hb = ((hb & 0x7FFF) << 16) | (lb & 0xFFFF)
+            }
+            return hb << 1
+        }
+
+        /**
+         * Retain the strings of ids, as AssetEditor#filterStringPool
+         * @param ids the retained string indexes, also receiving the strings referenced by styles
+         */
+        public void filter(IndexRemap ids) {
+            if (stringsStart == 0) return
+
+            // add style strings
+            Map<Integer, Integer> newStyleIds = new HashMap<Integer, Integer>()
+            for (Integer id : styleStringIds) {
+                newStyleIds.put(id, ids.indexOfOrAdd(id))
+            }
+
+            // Filter strings
+            int newStringCount = ids.size()
+            int[] positions = new int[newStringCount]
+            int[] lengths = new int[newStringCount]
+            int[] valueLengths = new int[newStringCount]
+            int[] offsets = new int[newStringCount]
+            int stringOffset = 0
+            for (int i = 0; i < newStringCount; i++) {
+                int id = ids.get(i)
+                positions[i] = stringPositions[id]
+                lengths[i] = stringLengths[id]
+                valueLengths[i] = stringValueLengths[id]
+                offsets[i] = stringOffset
+                stringOffset += lengths[i] + eofLength
+            }
+            int d = (stringCount - newStringCount) * 4
+            stringPositions = positions
+            stringLengths = lengths
+            stringValueLengths = valueLengths
+            stringOffsets = offsets
+            stringCount = newStringCount
+
+            // Filter styles
+            List<int[]> newStyles = new ArrayList<int[]>()
+            int[] newStyleOffsets = new int[newStringCount]
+            int[] newStyleLens = new int[newStringCount]
+            int styleOffset = 0
+            for (int i = 0; i < newStringCount; i++) {
+                int id = ids.get(i)
+                if (id >= styleCount) continue
+
+                int[] style = styles[id]
+                for (int j = 0; j < style.length; j += 3) {
+                    Integer newRef = newStyleIds.get(style[j])
+                    if (newRef == null || newRef == 0) {
+                        throw new Exception("Required new StringRef of ${style[j]}")
+                    }
+                    style[j] = newRef
+                }
+                newStyleOffsets[newStyles.size()] = styleOffset
+                newStyleLens[newStyles.size()] = styleLens[id]
+                styleOffset += styleLens[id]
+                newStyles.add(style)
+            }
+            int newStyleCount = newStyles.size()
+            d += (styleCount - newStyleCount) * 4
+            styles = newStyles.toArray(new int[newStyleCount][])
+            styleOffsets = Arrays.copyOf(newStyleOffsets, newStyleCount)
+            styleLens = Arrays.copyOf(newStyleLens, newStyleCount)
+            styleCount = newStyleCount
+
+            // Adjust strings start position
+            stringsStart -= d
+
+            d += stringsSize - stringOffset
+            stringsSize = stringOffset
+
+            // Adjust string padding (string size should be a multiple of 4)
+            int newStringPadding = (stringOffset & 3) != 0 ? 4 - (stringOffset & 3) : 0
+            d += stringPadding - newStringPadding
+            stringPadding = newStringPadding
+
+            // Adjust styles start position
+            if (stylesStart > 0) {
+                stylesStart -= d
+
+                d += styleSize - (styleOffset + 8)
+                styleSize = styleOffset + 8
+            }
+
+            size -= d
+        }
+
+        public void write(LittleEndianBuffer out) {
+            out.writeShort(type)
+            out.writeShort(headerSize)
+            out.writeInt(size)
+            out.writeInt(stringCount)
+            out.writeInt(styleCount)
+            out.writeInt(flags)
+            out.writeInt(stringsStart)
+            out.writeInt(stylesStart)
+
+            for (int i = 0; i < stringCount; i++) {
+                out.writeInt(stringOffsets[i])
+            }
+            for (int i = 0; i < styleCount; i++) {
+                out.writeInt(styleOffsets[i])
+            }
+
+            for (int i = 0; i < stringPositions.length; i++) {
+                out.writeBytes(source, stringPositions[i], stringLengths[i])
+                out.writeZeros(eofLength)
+            }
+            if (stringPadding > 0) out.writeZeros(stringPadding)
+
+            if (styleCount > 0) {
+                for (int[] style : styles) {
+                    for (int span : style) {
+                        out.writeInt(span)
+                    }
+                    out.writeInt(ResStringPoolSpan.END)
+                }
+                out.writeBytes(styleEnd)
+            }
+        }
+    }
+
+    /** Struct ResTable_package */
+    public static class PackageChunk {
+        int type
+        int headerSize
+        int size
+        int id
+        byte[] name
+        int typeStrings
+        int lastPublicType
+        int keyStrings
+        int lastPublicKey
+        int typeIdOffset
+
+        public static PackageChunk read(LittleEndianBuffer b) {
+            PackageChunk p = new PackageChunk()
+            p.type = b.readShort()
+            p.headerSize = b.readShort()
+            p.size = b.readInt()
+            assert (p.type == ResType.RES_TABLE_PACKAGE_TYPE)
+
+            p.id = b.readInt()
+            p.name = b.readBytes(256)
+            p.typeStrings = b.readInt()
+            p.lastPublicType = b.readInt()
+            p.keyStrings = b.readInt()
+            p.lastPublicKey = b.readInt()
+            p.typeIdOffset = b.readInt()
+            return p
+        }
+
+        public void write(LittleEndianBuffer out) {
+            out.writeShort(type)
+            out.writeShort(headerSize)
+            out.writeInt(size)
+            out.writeInt(id)
+            out.writeBytes(name)
+            out.writeInt(typeStrings)
+            out.writeInt(lastPublicType)
+            out.writeInt(keyStrings)
+            out.writeInt(lastPublicKey)
+            out.writeInt(typeIdOffset)
+        }
+    }
+
+    /** Struct ResTable_lib_header and ResTable_lib_entry x count */
+    public static class Library {
+        int type
+        int headerSize
+        int size
+        List<Integer> packageIds = []
+        List<byte[]> packageNames = []
+    }
+
+    /** Struct ResTable_typeSpec and its ResTable_type configs */
+    public static class TypeSpec {
+        int type
+        int headerSize
+        int size
+        int id
+        int res0
+        int res1
+        int entryCount
+        int[] flags
+        List<Type> configs = []
+    }
+
+    /** Struct ResTable_type */
+    public static class Type {
+        int type
+        int headerSize
+        int size
+        int id
+        int res0
+        int res1
+        int entryCount
+        int entriesStart
+        byte[] config // ResTable_config
+        int[] entryOffsets
+        Entry[] entries // null for NO_ENTRY
+        int entriesSize
+    }
+
+    /** Struct ResTable_entry or ResTable_map_entry */
+    public static class Entry {
+        int size
+        int flags
+        int key
+        int allSize
+        // Res_value of ResTable_entry, head is size(2), res0(1), dataType(1)
+        int valueHead
+        int valueData
+        // ResTable_map_entry
+        boolean complex
+        int parent
+        int count
+        int[] mapNames
+        int[] mapHeads
+        int[] mapData
+
+        public int getValueType() {
+            return (valueHead >>> 24) & 0xFF
+        }
+
+        public int getMapType(int i) {
+            return (mapHeads[i] >>> 24) & 0xFF
+        }
+
+        public static Entry read(LittleEndianBuffer b) {
+            Entry e = new Entry()
+            e.size = b.readShort()
+            e.flags = b.readShort()
+            e.key = b.readInt()
+            if (e.flags & ResTableEntry.FLAG_COMPLEX) {
+                e.complex = true
+                e.parent = b.readInt()
+                e.count = b.readInt()
+                int count = Math.max(e.count, 0)
+                e.mapNames = new int[count]
+                e.mapHeads = new int[count]
+                e.mapData = new int[count]
+                for (int i = 0; i < count; i++) {
+                    e.mapNames[i] = b.readInt()
+                    e.mapHeads[i] = b.readInt()
+                    e.mapData[i] = b.readInt()
+                }
+            } else {
+                e.valueHead = b.readInt()
+                e.valueData = b.readInt()
+            }
+            return e
+        }
+
+        public void write(LittleEndianBuffer out) {
+            out.writeShort(size)
+            out.writeShort(flags)
+            out.writeInt(key)
+            if (complex) {
+                out.writeInt(parent)
+                out.writeInt(count)
+                for (int i = 0; i < mapNames.length; i++) {
+                    out.writeInt(mapNames[i])
+                    out.writeInt(mapHeads[i])
+                    out.writeInt(mapData[i])
+                }
+            } else {
+                out.writeInt(valueHead)
+                out.writeInt(valueData)
+            }
+        }
+    }
+}
@@ -128,9 +128,26 @@ class ResourceCollector {
      * pluginResources = allResources - hostResources
      */
     private void filterPluginResources() {
+        // Index host resources by (type, name) and styleables by (name, valueType),
+        // the first one of the duplicated entries wins as List#indexOf
+        Map<ResourceEntry, Integer> hostResourceIndexes = new HashMap<>()
+        hostResources.keySet().each { resType ->
+            hostResources.get(resType).eachWithIndex { ResourceEntry entry, int i ->
+                if (!hostResourceIndexes.containsKey(entry)) {
+                    hostResourceIndexes.put(entry, i)
+                }
+            }
+        }
+        Map<StyleableEntry, Integer> hostStyleableIndexes = new HashMap<>()
+        hostStyleables.eachWithIndex { StyleableEntry entry, int i ->
+            if (!hostStyleableIndexes.containsKey(entry)) {
+                hostStyleableIndexes.put(entry, i)
+            }
+        }
+
         allResources.values().each {
-            def index = hostResources.get(it.resourceType).indexOf(it)
-            if(index >= 0){
+            def index = hostResourceIndexes.get(it)
+            if(index != null){
                 /**
                  * If the resource entry exists in host apk, assign the host resource ID of this entry
                  * as the new resource id.
@@ -145,8 +162,8 @@ class ResourceCollector {
         }
 
         allStyleables.each {
-            def index = hostStyleables.indexOf(it)
-            if(index >= 0) {
+            def index = hostStyleableIndexes.get(it)
+            if(index != null) {
                 /**
                  * Do not support the same name but different content styleable entry
                  */
@@ -188,12 +205,19 @@ class ResourceCollector {
             }
         }
 
-        List<ResourceEntry> attrEntries = allResources.get('attr')
+        // Index attrs by the hex resource id as written in R.txt, the first one wins
+        Map<String, ResourceEntry> attrEntries = new HashMap<>()
+        allResources.get('attr').each { ResourceEntry resEntry ->
+            String hexResId = resEntry.hexResourceId
+            if (!attrEntries.containsKey(hexResId)) {
+                attrEntries.put(hexResId, resEntry)
+            }
+        }
 
         pluginStyleables.findAll { it.valueType == 'int[]'}.each { StyleableEntry styleableEntry->
             List<String> values = styleableEntry.valueAsList
             values.eachWithIndex { hexResId, idx ->
-                ResourceEntry resEntry = attrEntries.find { it.hexResourceId == hexResId }
+                ResourceEntry resEntry = attrEntries.get(hexResId)
                 if (resEntry != null) {
                     values[idx] = resEntry.hexNewResourceId
                 }